@@ -1,19 +1,27 @@
 package factoid.converter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
+import org.biopax.paxtools.model.BioPAXElement;
 import org.biopax.paxtools.model.Model;
 import org.biopax.paxtools.model.level3.BioSource;
 import org.biopax.paxtools.model.level3.Catalysis;
 import org.biopax.paxtools.model.level3.Complex;
-import org.biopax.paxtools.model.level3.Control;
 import org.biopax.paxtools.model.level3.ControlType;
 import org.biopax.paxtools.model.level3.Controller;
 import org.biopax.paxtools.model.level3.Conversion;
@@ -22,8 +30,6 @@ import org.biopax.paxtools.model.level3.DnaRegion;
 import org.biopax.paxtools.model.level3.Entity;
 import org.biopax.paxtools.model.level3.EntityFeature;
 import org.biopax.paxtools.model.level3.EntityReference;
-import org.biopax.paxtools.model.level3.Evidence;
-import org.biopax.paxtools.model.level3.EvidenceCodeVocabulary;
 import org.biopax.paxtools.model.level3.Interaction;
 import org.biopax.paxtools.model.level3.ModificationFeature;
 import org.biopax.paxtools.model.level3.PhysicalEntity;
@@ -37,121 +43,310 @@ import org.biopax.paxtools.model.level3.TemplateReaction;
 import org.biopax.paxtools.model.level3.TemplateReactionRegulation;
 import org.biopax.paxtools.model.level3.Xref;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import factoid.model.ConversionMetrics;
+import factoid.model.IdGenerator;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
 
 
 
 public class BiopaxToFactoid {
 	
+	// writes the same JSON text as JsonElement.toString() (no html escaping, nulls kept)
+	static final Gson GSON = new GsonBuilder().disableHtmlEscaping().serializeNulls().create();
+	
+	private static final Timer JSON_BUILD_TIMER = ConversionMetrics.phase(ConversionMetrics.JSON_BUILD);
+	private static final Timer JSON_WRITE_TIMER = ConversionMetrics.phase(ConversionMetrics.JSON_WRITE);
+	private static final DistributionSummary INTERACTIONS = ConversionMetrics.documentInteractions(ConversionMetrics.BIOPAX);
+	
 	Logger logger;
 	
+	private CancellationToken cancellationToken = CancellationToken.NONE;
+	
+	private ForkJoinPool pool;
+	
+	// entity -> its grounding (type, name, _xref) or UNGROUNDED, computed once per conversion
+	private static final JsonObject UNGROUNDED = new JsonObject();
+	private Map<Entity, JsonObject> groundings = new ConcurrentHashMap<>();
+	
+	// the "first" of a set of elements (e.g. the xref of an entity reference) is the first in the URI order,
+	// and the participants are taken in that order, so that the same model always gives the same documents
+	private static final Comparator<BioPAXElement> BY_URI = Comparator.comparing(BioPAXElement::getUri);
+	
+	private IdGenerator idGenerator = IdGenerator.RANDOM;
+	
 	public BiopaxToFactoid() {
 		logger = Logger.getLogger(BiopaxToFactoid.class.getName()); 
 	}
 	
+	// checked once per interaction; a cancelled conversion stops with ConversionCancelledException
+	public void setCancellationToken(CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+	
+	// converts the PMID documents in parallel using the pool (sequentially if null);
+	// the result is the same, the documents are merged in the PMID order
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+	
+	// the ids of the elements are derived from the PMID and the URI of the interaction or entity,
+	// so with a deterministic generator the same model always gives byte-identical documents
+	public void setIdGenerator(IdGenerator idGenerator) {
+		this.idGenerator = idGenerator;
+	}
+	
 	public JsonObject convert(Model model) {
+		return convert(model, ConversionBudget.UNLIMITED).getDocuments();
+	}
+	
+	// indexes the model, see convert(PmidIndex, ConversionBudget)
+	public PartialResult convert(Model model, ConversionBudget budget) {
+		return JSON_BUILD_TIMER.record(() -> buildDocuments(PmidIndex.build(model, cancellationToken), budget));
+	}
+	
+	/**
+	 * Converts the interactions publication by publication, in the PMID order, starting after
+	 * the budget's cursor, until all are done or the budget is exhausted (checked after each PMID,
+	 * at least one PMID is done, so that paging through the results always makes progress;
+	 * a page may have no documents if its PMIDs have only ungrounded interactions).
+	 * @param index the interactions of a model by PMID (reusable for the same model)
+	 * @param budget
+	 * @return PMID documents, and whether they are all
+	 */
+	public PartialResult convert(PmidIndex index, ConversionBudget budget) {
+		return JSON_BUILD_TIMER.record(() -> buildDocuments(index, budget));
+	}
+	
+	private PartialResult buildDocuments(PmidIndex index, ConversionBudget budget) {
 		JsonObject o = new JsonObject();
-		Set<Interaction> intns = model.getObjects(Interaction.class);
-		intns = intns.stream()
-				.filter(intn -> intn.getControlledOf().size() == 0)
-				.filter(intn -> keepIntn(intn))
-				.collect(Collectors.toSet());
-
-		for (Interaction intn : intns) {
-			Set<String> markedPmids = new HashSet<>();
-			Process controlled = getControlled(intn);
-			for ( Evidence evidence : controlled.getEvidence() ) {
-				for (Xref xref : evidence.getXref()) {
-					String db = xref.getDb();
-					if ( db != null && db.equalsIgnoreCase("pubmed") ) {
-						String pmid = xref.getId();
-						if ( pmid != null && !markedPmids.contains(pmid) ) {
-							if (o.get(pmid) == null) {
-								o.add(pmid, new JsonArray());
-							}
-							JsonArray arr = (JsonArray) o.get(pmid);
-							handleIntn(arr, intn);
-							markedPmids.add(pmid);
-						}
-					}
-				}
-			}
-		}
-		
-		Set<String> pmids = o.keySet();
-		Set<String> idsToRemove = new HashSet<>();
+		String cursor = buildDocuments(index, budget, o::add);
+		return new PartialResult(o, cursor != null, cursor);
+	}
+	
+	// receives the PMID documents, in the PMID order, as soon as each is complete
+	private interface DocumentConsumer {
+		void accept(String pmid, JsonArray document);
+	}
+	
+	// Passes the non-empty documents to the consumer;
+	// returns the cursor if the budget is exhausted before all are done, or null
+	private String buildDocuments(PmidIndex index, ConversionBudget budget, DocumentConsumer consumer) {
+		NavigableMap<String, List<Interaction>> intnsByPmid = index.getInteractionsAfter(budget.getAfter());
+		groundings = new ConcurrentHashMap<>();
 		
-		// remove the documents including ungrounded entities
-		for ( String pmid : pmids ) {
-			if ( o.get(pmid).getAsJsonArray().size() == 0 ) {
-				idsToRemove.add(pmid);
-			}
+		if ( pool != null ) {
+			return buildDocumentsInParallel(intnsByPmid, budget, consumer);
 		}
 		
-		for ( String pmid : idsToRemove ) {
-			o.remove(pmid);
+		int documents = 0;
+		String cursor = null;
+		for ( Map.Entry<String, List<Interaction>> entry : intnsByPmid.entrySet() ) {
+			// checked for each PMID, whether or not its document turned out empty (ungrounded)
+			if ( cursor != null && budget.isExhausted(documents) ) {
+				return cursor;
+			}
+			JsonArray arr = buildDocument(entry.getKey(), entry.getValue());
+			// skip the documents including ungrounded entities
+			if ( arr.size() > 0 ) {
+				consumer.accept(entry.getKey(), arr);
+				documents++;
+				INTERACTIONS.record(interactions(arr));
+			}
+			cursor = entry.getKey();
 		}
 		
-		return o;
+		return null;
 	}
 	
-	private <T extends Object>  T getOptional(Optional<T> o) {
-		if ( o.isPresent() ) {
-			return o.get();
+	// The PMIDs are taken in chunks of a few per thread; the documents of a chunk are built by the pool,
+	// each in its own JsonArray, then passed on in the PMID order, as the sequential conversion does
+	// (the budget is checked between the documents as well, so the documents built after it ran out are dropped).
+	private String buildDocumentsInParallel(NavigableMap<String, List<Interaction>> intnsByPmid,
+			ConversionBudget budget, DocumentConsumer consumer) {
+		List<Map.Entry<String, List<Interaction>>> entries = new ArrayList<>(intnsByPmid.entrySet());
+		int chunkSize = pool.getParallelism() * 16;
+		
+		int documents = 0;
+		String cursor = null;
+		for ( int start = 0; start < entries.size(); start += chunkSize ) {
+			List<Map.Entry<String, List<Interaction>>> chunk = entries.subList(start, Math.min(start + chunkSize, entries.size()));
+			// join() rethrows a ConversionCancelledException of a task
+			List<JsonArray> arrs = pool.submit(() -> chunk.parallelStream()
+					.map(entry -> buildDocument(entry.getKey(), entry.getValue()))
+					.collect(Collectors.toList())).join();
+			for ( int i = 0; i < chunk.size(); i++ ) {
+				if ( cursor != null && budget.isExhausted(documents) ) {
+					return cursor;
+				}
+				JsonArray arr = arrs.get(i);
+				if ( arr.size() > 0 ) {
+					consumer.accept(chunk.get(i).getKey(), arr);
+					documents++;
+					INTERACTIONS.record(interactions(arr));
+				}
+				cursor = chunk.get(i).getKey();
+			}
 		}
 		
 		return null;
 	}
 	
-	private void addToJsonArr(JsonArray arr, JsonObject o) {
-		if ( o != null ) {
-			arr.add(o);
+	// the ids of a document's elements: one object per entity, shared by the interactions (entity -> its id)
+	private class DocumentIds {
+		final String pmid;
+		final Map<Entity, String> entityIds = new HashMap<>();
+		
+		DocumentIds(String pmid) {
+			this.pmid = pmid;
+		}
+		
+		String of(BioPAXElement element) {
+			return idGenerator.derive(pmid + " " + element.getUri());
 		}
 	}
 	
-	private Process getControlled(Interaction intn) {
-		Set<Process> s = null;
-		if ( intn instanceof Control ) {
-			s = ((Control) intn).getControlled();
-		}
-		if ( intn instanceof TemplateReactionRegulation ) {
-			s = ((TemplateReactionRegulation) intn).getControlled();
-		}
-		if ( intn instanceof Catalysis ) {
-			s = ((Catalysis) intn).getControlled();
-		}
-		if ( s == null ) {
-			return null;
+	private JsonArray buildDocument(String pmid, List<Interaction> intns) {
+		JsonArray arr = new JsonArray();
+		DocumentIds doc = new DocumentIds(pmid);
+		for ( Interaction intn : intns ) {
+			cancellationToken.check();
+			handleIntn(arr, doc, intn);
+		}
+		return arr;
+	}
+	
+	// converts the model and writes the resulting JSON to the output without building a String
+	public void convert(Model model, Writer out) throws IOException {
+		convert(PmidIndex.build(model, cancellationToken), out);
+	}
+	
+	// writes the (partial) result as {"documents": {...}, "partial": ..., "cursor": ...}
+	public void convert(Model model, ConversionBudget budget, Writer out) throws IOException {
+		convert(PmidIndex.build(model, cancellationToken), budget, out);
+	}
+	
+	// Each PMID document is written as soon as it is complete, and then dropped,
+	// so only one (or, in parallel, one chunk of) document is in memory at a time
+	public void convert(PmidIndex index, Writer out) throws IOException {
+		JsonWriter writer = new JsonWriter(out);
+		writer.beginObject();
+		writeDocuments(index, ConversionBudget.UNLIMITED, (pmid, document) -> {
+			writer.name(pmid);
+			GSON.toJson(document, writer);
+		});
+		writer.endObject();
+		writer.flush();
+	}
+	
+	// the same as convert(PmidIndex, Writer), in the object of a partial result
+	// (the documents come first, the result is known partial or not at the end)
+	public void convert(PmidIndex index, ConversionBudget budget, Writer out) throws IOException {
+		JsonWriter writer = new JsonWriter(out);
+		writer.beginObject();
+		writer.name("documents").beginObject();
+		String cursor = writeDocuments(index, budget, (pmid, document) -> {
+			writer.name(pmid);
+			GSON.toJson(document, writer);
+		});
+		writer.endObject();
+		writer.name("partial").value(cursor != null);
+		writer.name("cursor").value(cursor);
+		writer.endObject();
+		writer.flush();
+	}
+	
+	/**
+	 * Writes NDJSON, one {"pmid": ..., "elements": [...]} line per PMID document, and flushes
+	 * the output after each one, so that the client gets the first documents right away.
+	 * A partial result ends with a {"partial": true, "cursor": ...} line.
+	 * @param index
+	 * @param budget
+	 * @param out
+	 * @throws IOException
+	 */
+	public void convertToNdjson(PmidIndex index, ConversionBudget budget, Writer out) throws IOException {
+		String cursor = writeDocuments(index, budget, (pmid, document) -> {
+			JsonWriter writer = new JsonWriter(out);
+			writer.beginObject();
+			writer.name("pmid").value(pmid);
+			writer.name("elements");
+			GSON.toJson(document, writer);
+			writer.endObject();
+			out.write('\n');
+			out.flush();
+		});
+		if ( cursor != null ) {
+			JsonWriter writer = new JsonWriter(out);
+			writer.beginObject();
+			writer.name("partial").value(true);
+			writer.name("cursor").value(cursor);
+			writer.endObject();
+			out.write('\n');
+		}
+		out.flush();
+	}
+	
+	private interface DocumentWriter {
+		void write(String pmid, JsonArray document) throws IOException;
+	}
+	
+	// the time spent writing is recorded apart from the time spent building the documents
+	private String writeDocuments(PmidIndex index, ConversionBudget budget, DocumentWriter writer) throws IOException {
+		long start = System.nanoTime();
+		long[] writeNanos = new long[1];
+		try {
+			return buildDocuments(index, budget, (pmid, document) -> {
+				long t = System.nanoTime();
+				try {
+					writer.write(pmid, document);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				} finally {
+					writeNanos[0] += System.nanoTime() - t;
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			JSON_WRITE_TIMER.record(writeNanos[0], TimeUnit.NANOSECONDS);
+			JSON_BUILD_TIMER.record(System.nanoTime() - start - writeNanos[0], TimeUnit.NANOSECONDS);
 		}
-		Optional<Process> first = s.stream().findFirst();
-		if ( first.isPresent() ) {
-			return first.get();
+	}
+	
+	private <T extends Object>  T getOptional(Optional<T> o) {
+		if ( o.isPresent() ) {
+			return o.get();
 		}
 		
 		return null;
 	}
 	
-	private boolean keepIntn(Interaction intn) {
-		Process controlled = getControlled(intn);
-		if ( controlled == null ) {
-			return false;
-		}
-		for( Evidence evidence : controlled.getEvidence() ) {
-			for(EvidenceCodeVocabulary v : evidence.getEvidenceCode()) {
-				for(Xref xref : v.getXref()) {
-					String id = xref.getId();
-					if ( id.equalsIgnoreCase("MI:0074") || id.equalsIgnoreCase("MI:0421")
-							|| id.equalsIgnoreCase("MI:0113")) {
-						return true;
-					}
-				}
+	// the interactions of a document (the elements with entries), not its entities
+	private static int interactions(JsonArray document) {
+		int n = 0;
+		for ( JsonElement element : document ) {
+			if ( element.getAsJsonObject().has("entries") ) {
+				n++;
 			}
 		}
-		return false;
+		return n;
 	}
 	
-	private JsonObject makeIntnJson(String type, ControlType ctrlType, List<String> participantIds, String srcId, String tgtId) {
+	private void addToJsonArr(JsonArray arr, JsonObject o) {
+		if ( o != null ) {
+			arr.add(o);
+		}
+	}
+	
+	private JsonObject makeIntnJson(String id, String type, ControlType ctrlType, List<String> participantIds, String srcId, String tgtId) {
 		JsonObject obj = new JsonObject();
 		obj.addProperty("type", type);
 		obj.addProperty("association", type);
@@ -166,25 +361,22 @@ public class BiopaxToFactoid {
 			participantIds.add(tgtId);
 		}
 		JsonArray participantsArr = new JsonArray();
-		for ( String pptId : participantIds ) {
+		for ( int i = 0; i < participantIds.size(); i++ ) {
+			String pptId = participantIds.get(i);
 			JsonObject pptObj = new JsonObject();
 			pptObj.addProperty("id", pptId);
-			if ( pptId == tgtId ) {
+			// the target is the second one (the source may be the same entity, with the same id)
+			if ( tgtId != null && i == 1 ) {
 				pptObj.addProperty("group", "positive");
 			}
 			participantsArr.add(pptObj);
 		}
 		obj.add("entries", participantsArr);
-		obj.addProperty("id", generateUUID());
+		obj.addProperty("id", id);
 
 		return obj;
 	}
 	
-	// Generate unique id for new elements
-	private static String generateUUID() {
-		return UUID.randomUUID().toString();
-	}
-	
 	private JsonObject makeEntityJson(Entity entity) {
 		String type = getEntityType(entity);
 		String name = entity.getDisplayName();
@@ -198,7 +390,7 @@ public class BiopaxToFactoid {
 				org = ((ProteinReference) er).getOrganism();
 			}
 			if ( er != null && er.getXref().size() > 0 ) {
-				xref = getOptional(er.getXref().stream().findFirst());
+				xref = getOptional(er.getXref().stream().min(BY_URI));
 			}
 		}
 		
@@ -211,7 +403,6 @@ public class BiopaxToFactoid {
 		JsonObject obj = new JsonObject();
 		obj.addProperty("type", type);
 		obj.addProperty("name", name);
-		obj.addProperty("id", generateUUID());
 		
 		String originalDb = xref.getDb();
 		String id = xref.getId();
@@ -235,7 +426,7 @@ public class BiopaxToFactoid {
 			jsXref.addProperty("db", db);
 			jsXref.addProperty("id", id);
 			
-			Xref orgXref = getOptional(org.getXref().stream().findFirst());
+			Xref orgXref = getOptional(org.getXref().stream().min(BY_URI));
 			if ( orgXref == null ) {
 				return null;
 			}
@@ -325,50 +516,68 @@ public class BiopaxToFactoid {
 		return null;
 	}
 	
-	private List<String> handleEntities(JsonArray arr, Set<Entity> ppts, Entity src, Entity tgt) {
+	// the grounding of the entity (makeEntityJson, without an id), or null if it has none
+	private JsonObject grounding(Entity entity) {
+		JsonObject grounding = groundings.computeIfAbsent(entity, e -> {
+			JsonObject obj = makeEntityJson(e);
+			return obj == null ? UNGROUNDED : obj;
+		});
+		return grounding == UNGROUNDED ? null : grounding;
+	}
+	
+	// the id of the entity's object in the document, adding the object on the first use
+	private String addEntity(JsonArray arr, DocumentIds doc, Entity entity) {
+		String id = doc.entityIds.get(entity);
+		if ( id == null ) {
+			JsonObject grounding = grounding(entity);
+			JsonObject obj = new JsonObject();
+			obj.add("type", grounding.get("type"));
+			obj.add("name", grounding.get("name"));
+			id = doc.of(entity);
+			obj.addProperty("id", id);
+			// a copy, as the documents of the result are separate (mutable) trees
+			if ( grounding.has("_xref") ) {
+				obj.add("_xref", grounding.get("_xref").deepCopy());
+			}
+			arr.add(obj);
+			doc.entityIds.put(entity, id);
+		}
+		return id;
+	}
+	
+	private List<String> handleEntities(JsonArray arr, DocumentIds doc, Set<Entity> ppts, Entity src, Entity tgt) {
 		List<String> ids = new ArrayList<String>();
 		
 		if ( src != null && tgt != null ) {
-			JsonObject srcObj = makeEntityJson(src);
-			JsonObject tgtObj = makeEntityJson(tgt);
-			
-			if ( srcObj == null || tgtObj == null ) {
+			if ( grounding(src) == null || grounding(tgt) == null ) {
 				// if the interaction has entities skipped because of the grounding issues
 				// skip the interaction as well
 				return null;
 			}
 			
-			addToJsonArr(arr, srcObj);
-			addToJsonArr(arr, tgtObj);
-			
-			ids.add(srcObj.get("id").getAsString());
-			ids.add(tgtObj.get("id").getAsString());
+			ids.add(addEntity(arr, doc, src));
+			ids.add(addEntity(arr, doc, tgt));
 		}
 		if ( ppts != null ) {
-			Set<JsonObject> pptObjs = new HashSet<JsonObject>();
 			for (Entity ppt : ppts) {
-				JsonObject pptObj = makeEntityJson(ppt);
-				
-				if ( pptObj == null ) {
+				if ( grounding(ppt) == null ) {
 					// if the interaction has entities skipped because of the grounding issues
 					// skip the interaction as well
 					return null;
 				}
-				
-				pptObjs.add(pptObj);
-				
-				ids.add(pptObj.get("id").getAsString());
 			}
 			
-			for ( JsonObject pptObj : pptObjs ) {
-				addToJsonArr(arr, pptObj);
+			List<Entity> sorted = new ArrayList<>(ppts);
+			sorted.sort(BY_URI);
+			for (Entity ppt : sorted) {
+				ids.add(addEntity(arr, doc, ppt));
 			}
 		}
 		
 		return ids;
 	}
 	
-	private void handleIntn(JsonArray arr, Interaction intn) {
+	private void handleIntn(JsonArray arr, DocumentIds doc, Interaction intn) {
 		Class c = intn.getClass();
 		
 //		if ( c == MolecularInteraction.class ) {
@@ -377,20 +586,20 @@ public class BiopaxToFactoid {
 //		}
 		if ( c == TemplateReactionRegulation.class ) {
 			TemplateReactionRegulation regulation = (TemplateReactionRegulation) intn;
-			Controller src = getOptional(regulation.getController().stream().findFirst());
+			Controller src = getOptional(regulation.getController().stream().min(BY_URI));
 			Class srcClass = src.getClass();
 			if ( isMacromolecule(srcClass) || isComplex(srcClass) ) {
-				Process reaction = getOptional(regulation.getControlled().stream().findFirst());
+				Process reaction = getOptional(regulation.getControlled().stream().min(BY_URI));
 				if (reaction.getClass() == Process.class) {
-					PhysicalEntity tgt = getOptional(((TemplateReaction) reaction).getProduct().stream().findFirst());
+					PhysicalEntity tgt = getOptional(((TemplateReaction) reaction).getProduct().stream().min(BY_URI));
 					Class tgtClass = tgt.getClass();
 					if ( isProtein(tgtClass) || isRna(tgtClass) ) {
 						ControlType ctrlType = regulation.getControlType();
-						List<String> ids = handleEntities(arr, null, src, tgt);
+						List<String> ids = handleEntities(arr, doc, null, src, tgt);
 						if ( ids == null ) {
 							return;
 						}
-						JsonObject intnObj = makeIntnJson("transcription-translation", ctrlType, null, ids.get(0), ids.get(1));
+						JsonObject intnObj = makeIntnJson(doc.of(intn), "transcription-translation", ctrlType, null, ids.get(0), ids.get(1));
 						addToJsonArr(arr, intnObj);
 						return;
 					}
@@ -399,26 +608,26 @@ public class BiopaxToFactoid {
 		}
 		if ( c == Catalysis.class ) {
 			Catalysis catalysis = (Catalysis) intn;
-			Controller src = getOptional(catalysis.getController().stream().findFirst());
+			Controller src = getOptional(catalysis.getController().stream().min(BY_URI));
 			Class srcClass = src.getClass();
 			if ( isMacromolecule(srcClass) || isComplex(srcClass) ) {
-				Conversion conversion = (Conversion) getOptional(catalysis.getControlled().stream().findFirst());
+				Conversion conversion = (Conversion) getOptional(catalysis.getControlled().stream().min(BY_URI));
 				// getLeft() would also work instead of getRight()				
-				PhysicalEntity tgt = getOptional(((Conversion) conversion).getRight().stream().findFirst());
+				PhysicalEntity tgt = getOptional(((Conversion) conversion).getRight().stream().min(BY_URI));
 				Class tgtClass = tgt.getClass();
 				if ( isMacromolecule(tgtClass) ) {
 					ControlType ctrlType = catalysis.getControlType();
 					String type = "modification";
-					EntityFeature mf = getOptional(((PhysicalEntity) tgt).getFeature().stream().filter(f -> f instanceof ModificationFeature).findFirst());
+					EntityFeature mf = getOptional(((PhysicalEntity) tgt).getFeature().stream().filter(f -> f instanceof ModificationFeature).min(BY_URI));
 					
 					if ( mf != null ) {
 						type = mf.toString().replace("ion", "ed");
 					}
-					List<String> ids = handleEntities(arr, null, src, tgt);
+					List<String> ids = handleEntities(arr, doc, null, src, tgt);
 					if ( ids == null ) {
 						return;
 					}
-					JsonObject intnObj = makeIntnJson(type, ctrlType, null, ids.get(0), ids.get(1));
+					JsonObject intnObj = makeIntnJson(doc.of(intn), type, ctrlType, null, ids.get(0), ids.get(1));
 					addToJsonArr(arr, intnObj);
 					return;
 				}
@@ -429,11 +638,11 @@ public class BiopaxToFactoid {
 		List<Entity> pePPts = ppts.stream().filter(p -> p instanceof PhysicalEntity).collect(Collectors.toList());
 		List<Entity> intnPPts = ppts.stream().filter(p -> p instanceof Interaction).collect(Collectors.toList());
 		if ( pePPts.size() == ppts.size() ) {
-			List<String> ids = handleEntities(arr, ppts, null, null);
+			List<String> ids = handleEntities(arr, doc, ppts, null, null);
 			if ( ids == null ) {
 				return;
 			}
-			JsonObject intnObj = makeIntnJson("interaction", null, ids, null, null);
+			JsonObject intnObj = makeIntnJson(doc.of(intn), "interaction", null, ids, null, null);
 			addToJsonArr(arr, intnObj);
 			return;
 		}
@@ -442,11 +651,11 @@ public class BiopaxToFactoid {
 			PhysicalEntity tgt = getLeafEntity(intnPPts.get(0));
 			
 			if ( tgt != null ) {
-				List<String> ids = handleEntities(arr, null, src, tgt);
+				List<String> ids = handleEntities(arr, doc, null, src, tgt);
 				if ( ids == null ) {
 					return;
 				}
-				JsonObject intnObj = makeIntnJson("interaction", null, null, ids.get(0), ids.get(1));
+				JsonObject intnObj = makeIntnJson(doc.of(intn), "interaction", null, null, ids.get(0), ids.get(1));
 				addToJsonArr(arr, intnObj);
 				return;
 			}
@@ -456,11 +665,11 @@ public class BiopaxToFactoid {
 				.filter(l -> l != null)
 				.collect(Collectors.toSet());
 		
-		List<String> ids = handleEntities(arr, leafs, null, null);
+		List<String> ids = handleEntities(arr, doc, leafs, null, null);
 		if ( ids == null ) {
 			return;
 		}
-		JsonObject intnObj = makeIntnJson("interaction", null, ids, null, null);
+		JsonObject intnObj = makeIntnJson(doc.of(intn), "interaction", null, ids, null, null);
 		addToJsonArr(arr, intnObj);
 	}
 }
@@ -0,0 +1,26 @@
+package factoid.converter;
+
+import java.io.OutputStream;
+
+import org.biopax.paxtools.io.sbgn.L3ToSBGNPDConverter;
+import org.biopax.paxtools.model.Model;
+
+import factoid.model.ConversionMetrics;
+import io.micrometer.core.instrument.Timer;
+
+/*
+ * Writes a BioPAX model as SBGN-ML (SBGN PD), without a layout; for the single and the batch conversions alike.
+ */
+public final class BiopaxToSbgn {
+	
+	private static final Timer SBGN_WRITE_TIMER = ConversionMetrics.phase(ConversionMetrics.SBGN_WRITE);
+	
+	private BiopaxToSbgn() {
+	}
+	
+	public static void convert(Model model, OutputStream out) {
+		L3ToSBGNPDConverter converter = new L3ToSBGNPDConverter();
+		converter.setDoLayout(false); //TODO: apply the default sbgn layout?
+		SBGN_WRITE_TIMER.record(() -> converter.writeSBGN(model, out));
+	}
+}
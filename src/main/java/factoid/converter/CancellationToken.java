@@ -0,0 +1,68 @@
+package factoid.converter;
+
+import java.time.Duration;
+
+/*
+ * Lets the caller stop a conversion that nobody waits for anymore: it is cancelled explicitly
+ * (e.g. the client went away) or when its time budget is over. The converters check it once per
+ * interaction/template and give up with a ConversionCancelledException.
+ */
+public class CancellationToken {
+	
+	// never cancelled
+	public static final CancellationToken NONE = new CancellationToken(null) {
+		@Override
+		public void cancel() {
+		}
+	};
+	
+	// System.nanoTime() deadline, if there is a time budget
+	private final boolean hasDeadline;
+	private final long deadline;
+	private volatile boolean cancelled;
+	
+	// cancels this one too (but its deadline does not apply)
+	private final CancellationToken parent;
+	
+	// a null or zero budget means no deadline
+	public CancellationToken(Duration budget) {
+		this(budget, null);
+	}
+	
+	private CancellationToken(Duration budget, CancellationToken parent) {
+		hasDeadline = budget != null && !budget.isZero();
+		deadline = hasDeadline ? System.nanoTime() + budget.toNanos() : 0;
+		this.parent = parent;
+	}
+	
+	// A token with another time budget (from now; none if null or zero), cancelled when this one is
+	// (e.g. a conversion that is allowed to take longer, but not after the client went away)
+	public CancellationToken withBudget(Duration budget) {
+		return new CancellationToken(budget, this);
+	}
+	
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	public boolean isCancelled() {
+		return isCancelledExplicitly() || isExpired();
+	}
+	
+	private boolean isCancelledExplicitly() {
+		return cancelled || (parent != null && parent.isCancelledExplicitly());
+	}
+	
+	public boolean isExpired() {
+		return hasDeadline && System.nanoTime() - deadline > 0;
+	}
+	
+	public void check() {
+		if (isCancelledExplicitly()) {
+			throw new ConversionCancelledException("Conversion cancelled");
+		}
+		if (isExpired()) {
+			throw new ConversionCancelledException("Conversion exceeded its time budget");
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package factoid.converter;
+
+import java.time.Duration;
+
+/*
+ * Limits of a partial BioPAX to Factoid conversion: the PMID to continue after (the cursor of the previous
+ * partial result), the max number of PMID documents, and the time budget (counted from the creation of the budget).
+ * A conversion that runs out of its budget returns the PMID documents completed so far.
+ */
+public class ConversionBudget {
+	
+	public static final ConversionBudget UNLIMITED = new ConversionBudget(null, null, null);
+	
+	private final String after;
+	private final int maxDocuments;
+	private final CancellationToken deadline;
+	
+	// null arguments are no limits
+	public ConversionBudget(String after, Integer maxDocuments, Duration time) {
+		this.after = after;
+		this.maxDocuments = (maxDocuments == null) ? Integer.MAX_VALUE : maxDocuments;
+		this.deadline = new CancellationToken(time);
+	}
+	
+	public String getAfter() {
+		return after;
+	}
+	
+	// whether to stop having completed the given number of documents
+	public boolean isExhausted(int documents) {
+		return documents >= maxDocuments || deadline.isExpired();
+	}
+}
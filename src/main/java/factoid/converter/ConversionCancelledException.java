@@ -0,0 +1,11 @@
+package factoid.converter;
+
+/*
+ * Thrown by a converter when its CancellationToken has been cancelled or its time budget is over.
+ */
+public class ConversionCancelledException extends RuntimeException {
+	
+	public ConversionCancelledException(String message) {
+		super(message);
+	}
+}
@@ -1,5 +1,6 @@
 package factoid.converter;
 
+import java.io.OutputStream;
 import java.io.Reader;
 
 /*
@@ -12,6 +13,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.biopax.paxtools.model.BioPAXElement;
+import org.biopax.paxtools.model.Model;
 import org.biopax.paxtools.model.level3.Complex;
 import org.biopax.paxtools.model.level3.ControlType;
 import org.biopax.paxtools.model.level3.DnaRegion;
@@ -27,6 +29,9 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.reflect.TypeToken;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+
 import factoid.model.*;
 
 public class FactoidToBiopax {
@@ -35,23 +40,44 @@ public class FactoidToBiopax {
 
   private static final Map<String, ControlType> CONTROL_TYPE_MAP = createControlTypeMap();
 	
+	// both are stateless and thread-safe, so they are shared by all converter instances
+	private static final JsonParser JSON_PARSER = new JsonParser();
+	private static final Gson GSON = new Gson();
+
+	private static final Timer JSON_PARSE_TIMER = ConversionMetrics.phase(ConversionMetrics.JSON_PARSE);
+	private static final Timer TEMPLATE_BUILD_TIMER = ConversionMetrics.phase(ConversionMetrics.TEMPLATE_BUILD);
+	private static final DistributionSummary INTERACTIONS = ConversionMetrics.documentInteractions(ConversionMetrics.FACTOID);
+	private static final DistributionSummary ELEMENTS = ConversionMetrics.modelElements(ConversionMetrics.FACTOID);
+	
 	private TemplateModel model;
-	private JsonParser jsonParser;
-	private Gson gson;
+	
+	private CancellationToken cancellationToken = CancellationToken.NONE;
 	
 	public FactoidToBiopax() {
-		model = new TemplateModel();
-		jsonParser = new JsonParser();
-		gson = new Gson();
+		this(IdGenerator.RANDOM);
+	}
+	
+	// the URIs of the created BioPAX elements come from the generator
+	public FactoidToBiopax(IdGenerator idGenerator) {
+		model = new TemplateModel(idGenerator);
+	}
+	
+	// checked once per template; a cancelled conversion stops with ConversionCancelledException
+	public void setCancellationToken(CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+	
+	// the Factoid document of the JSON content (e.g. to seed the ids with, see IdGenerator)
+	public static JsonObject parse(String templateContent) {
+		return JSON_PARSE_TIMER.record(() -> JSON_PARSER.parse(templateContent).getAsJsonObject());
 	}
 	
 	public void addToModel(String templateContent) {
-		JsonObject template = jsonParser.parse(templateContent).getAsJsonObject();
-		addToModel(template);
+		addToModel(parse(templateContent));
 	}
 	
 	public void addToModel(Reader contentReader) {
-		JsonObject template = jsonParser.parse(contentReader).getAsJsonObject();
+		JsonObject template = JSON_PARSE_TIMER.record(() -> JSON_PARSER.parse(contentReader).getAsJsonObject());
 		addToModel(template);
 	}
 
@@ -61,15 +87,22 @@ public class FactoidToBiopax {
    * @param docTemplate
    */
 	public void addToModel(JsonObject docTemplate) {
+		TEMPLATE_BUILD_TIMER.record(() -> addTemplates(docTemplate));
+		ELEMENTS.record(getBiopaxModel().getObjects().size());
+	}
+
+	private void addTemplates(JsonObject docTemplate) {
 		// quick checks if we can handle this json data
 		if(!docTemplate.has("interactions") || !docTemplate.get("interactions").isJsonArray()) {
 			throw new AssertionError("Unsupported json shcema (expected 'interactions' array)");
 		}
 
 		JsonArray intnTemplates = docTemplate.get("interactions").getAsJsonArray();
+		INTERACTIONS.record(intnTemplates.size());
 
 		Iterator<JsonElement> it = intnTemplates.iterator();
 		while (it.hasNext()) {
+			cancellationToken.check();
 			JsonObject template = (JsonObject) it.next();
 			String typeStr = template.get("type").getAsString();
 			
@@ -139,7 +172,7 @@ public class FactoidToBiopax {
 	}
 
 	private void setPublication(JsonObject pubJson) {
-		XrefModel pubXrefModel = gson.fromJson(pubJson, XrefModel.class);
+		XrefModel pubXrefModel = GSON.fromJson(pubJson, XrefModel.class);
 		
 		model.setPublication(pubXrefModel);
 	}
@@ -148,6 +181,16 @@ public class FactoidToBiopax {
 		return model.convertToOwl();
 	}
 	
+	// streams the BioPAX RDF/XML to the output (e.g. a web response) instead of building a String
+	public void convertToBiopax(OutputStream out) {
+		model.convertToOwl(out);
+	}
+	
+	// the in-memory BioPAX model built from the templates (no serialization involved)
+	public Model getBiopaxModel() {
+		return model.getPaxtoolsModel();
+	}
+	
 	private static String getTemplateName(TemplateType templateType) {
 		return templateType.getName();
 	}
@@ -169,7 +212,7 @@ public class FactoidToBiopax {
 	}
 	
 	private void addOtherInteraction(JsonArray participantsJSON, String controlTypeStr) {		
-		List<EntityModel> participantModels = gson.fromJson(participantsJSON, new TypeToken<List<EntityModel>>(){}.getType());
+		List<EntityModel> participantModels = GSON.fromJson(participantsJSON, new TypeToken<List<EntityModel>>(){}.getType());
 		if (controlTypeStr == null) {
 			model.addInteraction(participantModels);
 		}
@@ -197,22 +240,22 @@ public class FactoidToBiopax {
 	}
 
 	private void addMolecularInteraction(JsonArray participantsJSON) {
-		List<EntityModel> participantModels = gson.fromJson(participantsJSON, new TypeToken<List<EntityModel>>(){}.getType());
+		List<EntityModel> participantModels = GSON.fromJson(participantsJSON, new TypeToken<List<EntityModel>>(){}.getType());
 		model.addMolecularInteraction(participantModels);
 	}
 	
 	private void addProteinControlsState(JsonObject controllerProteinJson, JsonObject targetProteinJson, String modification, String controlTypeStr) {
 		ControlType controlType = getControlType(controlTypeStr);
-		EntityModel controllerProteinModel = gson.fromJson(controllerProteinJson, EntityModel.class);
-		EntityModel targetProteinModel = gson.fromJson(targetProteinJson, EntityModel.class);
+		EntityModel controllerProteinModel = GSON.fromJson(controllerProteinJson, EntityModel.class);
+		EntityModel targetProteinModel = GSON.fromJson(targetProteinJson, EntityModel.class);
 		
 		model.addControlsState(controllerProteinModel, targetProteinModel, modification, controlType);
 	}
 	
 	private void addExpressionRegulation(JsonObject controllerJson, JsonObject targetJson, String controlTypeStr) {
 		ControlType controlType = getControlType(controlTypeStr);
-		EntityModel controllerModel = gson.fromJson(controllerJson, EntityModel.class);
-		EntityModel targetModel = gson.fromJson(targetJson, EntityModel.class);
+		EntityModel controllerModel = GSON.fromJson(controllerJson, EntityModel.class);
+		EntityModel targetModel = GSON.fromJson(targetJson, EntityModel.class);
 		
 		model.addExpressionRegulation(controllerModel, targetModel, controlType);
 	}
@@ -0,0 +1,44 @@
+package factoid.converter;
+
+import com.google.gson.JsonObject;
+
+/*
+ * The PMID documents of a (possibly partial) BioPAX to Factoid conversion. A partial result
+ * has a cursor - the last PMID it covers - to continue the conversion after.
+ */
+public class PartialResult {
+	
+	private final JsonObject documents;
+	private final boolean partial;
+	private final String cursor;
+	
+	public PartialResult(JsonObject documents, boolean partial, String cursor) {
+		this.documents = documents;
+		this.partial = partial;
+		this.cursor = cursor;
+	}
+	
+	// PMID -> document (interactions and entities)
+	public JsonObject getDocuments() {
+		return documents;
+	}
+	
+	public boolean isPartial() {
+		return partial;
+	}
+	
+	// null if the result is complete
+	public String getCursor() {
+		return cursor;
+	}
+	
+	// {"partial": true, "cursor": "12345", "documents": {...}}
+	// (BiopaxToFactoid.convert(PmidIndex, ConversionBudget, Writer) streams the same fields, the documents first)
+	public JsonObject toJson() {
+		JsonObject o = new JsonObject();
+		o.addProperty("partial", partial);
+		o.addProperty("cursor", cursor);
+		o.add("documents", documents);
+		return o;
+	}
+}
@@ -0,0 +1,127 @@
+package factoid.converter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.biopax.paxtools.model.Model;
+import org.biopax.paxtools.model.level3.Catalysis;
+import org.biopax.paxtools.model.level3.Control;
+import org.biopax.paxtools.model.level3.Evidence;
+import org.biopax.paxtools.model.level3.EvidenceCodeVocabulary;
+import org.biopax.paxtools.model.level3.Interaction;
+import org.biopax.paxtools.model.level3.Process;
+import org.biopax.paxtools.model.level3.TemplateReactionRegulation;
+import org.biopax.paxtools.model.level3.Xref;
+
+/*
+ * PMID -> the root (not controlled) interactions with evidence from that publication (in the URI order),
+ * of those having an experimental evidence code, built in a single pass over the interactions of a model.
+ * The index only refers to the model's interactions, so it can be reused as long as the model
+ * does not change (e.g. along with a cached model, see the web ModelCache).
+ */
+public class PmidIndex {
+	
+	// PMIDs are numbers, so the shorter ids come first (then lexicographic order)
+	static final Comparator<String> PMID_ORDER =
+		Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder());
+	
+	private final NavigableMap<String, List<Interaction>> intnsByPmid;
+	
+	private PmidIndex(NavigableMap<String, List<Interaction>> intnsByPmid) {
+		this.intnsByPmid = Collections.unmodifiableNavigableMap(intnsByPmid);
+	}
+	
+	// the token is checked once per interaction
+	public static PmidIndex build(Model model, CancellationToken cancellationToken) {
+		return build(model.getObjects(Interaction.class), cancellationToken);
+	}
+	
+	// of the given interactions only (e.g. those of a shard, see ShardedBiopaxToFactoid)
+	static PmidIndex build(Collection<? extends Interaction> interactions, CancellationToken cancellationToken) {
+		NavigableMap<String, List<Interaction>> intnsByPmid = new TreeMap<>(PMID_ORDER);
+		Set<String> pmids = new HashSet<>();
+		for ( Interaction intn : interactions ) {
+			cancellationToken.check();
+			if ( intn.getControlledOf().size() != 0 ) {
+				continue;
+			}
+			Process controlled = getControlled(intn);
+			if ( controlled == null ) {
+				continue;
+			}
+			// the evidence code check and the PubMed xrefs in the same walk over the evidence
+			boolean keep = false;
+			pmids.clear();
+			for ( Evidence evidence : controlled.getEvidence() ) {
+				keep = keep || hasExperimentalCode(evidence);
+				for ( Xref xref : evidence.getXref() ) {
+					String db = xref.getDb();
+					if ( db != null && db.equalsIgnoreCase("pubmed") && xref.getId() != null ) {
+						pmids.add(xref.getId());
+					}
+				}
+			}
+			if ( keep ) {
+				for ( String pmid : pmids ) {
+					intnsByPmid.computeIfAbsent(pmid, k -> new ArrayList<>()).add(intn);
+				}
+			}
+		}
+		// in the URI order, not that of the model's objects, so that a document does not depend on how the model was read
+		for ( List<Interaction> intns : intnsByPmid.values() ) {
+			intns.sort(Comparator.comparing(Interaction::getUri));
+		}
+		return new PmidIndex(intnsByPmid);
+	}
+	
+	// in the PMID order
+	public NavigableMap<String, List<Interaction>> getInteractions() {
+		return intnsByPmid;
+	}
+	
+	// the PMIDs after the given one (all if null)
+	public NavigableMap<String, List<Interaction>> getInteractionsAfter(String pmid) {
+		return pmid == null ? intnsByPmid : intnsByPmid.tailMap(pmid, false);
+	}
+	
+	public int size() {
+		return intnsByPmid.size();
+	}
+	
+	private static Process getControlled(Interaction intn) {
+		Set<Process> s = null;
+		if ( intn instanceof Control ) {
+			s = ((Control) intn).getControlled();
+		}
+		if ( intn instanceof TemplateReactionRegulation ) {
+			s = ((TemplateReactionRegulation) intn).getControlled();
+		}
+		if ( intn instanceof Catalysis ) {
+			s = ((Catalysis) intn).getControlled();
+		}
+		if ( s == null ) {
+			return null;
+		}
+		return s.stream().findFirst().orElse(null);
+	}
+	
+	private static boolean hasExperimentalCode(Evidence evidence) {
+		for ( EvidenceCodeVocabulary v : evidence.getEvidenceCode() ) {
+			for ( Xref xref : v.getXref() ) {
+				String id = xref.getId();
+				if ( id.equalsIgnoreCase("MI:0074") || id.equalsIgnoreCase("MI:0421")
+						|| id.equalsIgnoreCase("MI:0113") ) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
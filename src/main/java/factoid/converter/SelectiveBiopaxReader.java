@@ -0,0 +1,199 @@
+package factoid.converter;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.biopax.paxtools.controller.ObjectPropertyEditor;
+import org.biopax.paxtools.controller.PropertyEditor;
+import org.biopax.paxtools.controller.SimpleEditorMap;
+import org.biopax.paxtools.model.BioPAXElement;
+import org.biopax.paxtools.model.BioPAXFactory;
+import org.biopax.paxtools.model.BioPAXLevel;
+import org.biopax.paxtools.model.Model;
+
+/*
+ * Reads a BioPAX L3 RDF/XML document (as written by paxtools) with StAX into a pruned paxtools Model
+ * that has only what BiopaxToFactoid uses: the interactions and their participants, evidence, entity
+ * references, features, xrefs and organisms. The classes and properties it never looks at (pathways,
+ * provenance, comments, sequences, publication details, ...) are skipped without being materialized,
+ * which saves much of the memory and time SimpleIOHandler spends on a large model.
+ * The same conversion of the pruned model gives the same result as that of the complete one.
+ */
+public class SelectiveBiopaxReader {
+	
+	static final String RDF_NS = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+	static final String BIOPAX_NS = "http://www.biopax.org/release/biopax-level3.owl#";
+	
+	// never created; references to them are dropped
+	static final Set<String> SKIPPED_CLASSES = new HashSet<>(Arrays.asList(
+		"Provenance", "PathwayStep", "BiochemicalPathwayStep", "Stoichiometry", "DeltaG", "KPrime", "Score",
+		"ExperimentalForm", "ChemicalStructure", "CellularLocationVocabulary", "CellVocabulary", "TissueVocabulary",
+		"InteractionVocabulary", "RelationshipTypeVocabulary", "EntityReferenceTypeVocabulary",
+		"ExperimentalFormVocabulary", "PhenotypeVocabulary"));
+	
+	// never set (of any class)
+	static final Set<String> SKIPPED_PROPERTIES = new HashSet<>(Arrays.asList(
+		"comment", "dataSource", "availability", "pathwayComponent", "pathwayOrder", "participantStoichiometry",
+		"componentStoichiometry", "component", "memberPhysicalEntity", "memberEntityReference", "memberFeature",
+		"notFeature", "cellularLocation", "interactionType", "interactionScore", "confidence", "experimentalForm",
+		"conversionDirection", "catalysisDirection", "templateDirection", "spontaneous", "deltaG", "deltaH",
+		"deltaS", "kEQ", "eCNumber", "sequence", "structure", "chemicalFormula", "molecularWeight",
+		"entityReferenceType", "relationshipType", "tissue", "cellType", "title", "author", "source", "url", "year",
+		"idVersion", "dbVersion", "stepDirection"));
+	
+	// The input is untrusted (request bodies): no DTDs, so no external entities (XXE) and no entity
+	// expansion; paxtools never writes a DOCTYPE. Configured once, then only used to create readers.
+	static final XMLInputFactory XML_INPUT_FACTORY = xmlInputFactory();
+	
+	private final BioPAXFactory factory = BioPAXLevel.L3.getDefaultFactory();
+	
+	// an object property value to set once all the objects are read (they may come in any order)
+	static class Reference {
+		final BioPAXElement bean;
+		final PropertyEditor editor;
+		final String uri;
+		
+		Reference(BioPAXElement bean, PropertyEditor editor, String uri) {
+			this.bean = bean;
+			this.editor = editor;
+			this.uri = uri;
+		}
+	}
+	
+	public Model read(InputStream in) {
+		try {
+			XMLStreamReader r = XML_INPUT_FACTORY.createXMLStreamReader(in);
+			try {
+				return read(r);
+			} finally {
+				r.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException("Invalid BioPAX RDF/XML: " + e.getMessage(), e);
+		}
+	}
+	
+	private Model read(XMLStreamReader r) throws XMLStreamException {
+		Model model = factory.createModel();
+		List<Reference> references = new ArrayList<>();
+		String base = "";
+		
+		while ( r.hasNext() ) {
+			if ( r.next() != XMLStreamConstants.START_ELEMENT ) {
+				continue;
+			}
+			if ( RDF_NS.equals(r.getNamespaceURI()) && "RDF".equals(r.getLocalName()) ) {
+				String xmlBase = r.getAttributeValue(XMLConstants.XML_NS_URI, "base");
+				if ( xmlBase != null ) {
+					base = xmlBase;
+					model.setXmlBase(xmlBase);
+				}
+				continue;
+			}
+			// a top-level object (children of rdf:RDF)
+			String type = r.getLocalName();
+			String uri = uri(base, r.getAttributeValue(RDF_NS, "about"), r.getAttributeValue(RDF_NS, "ID"));
+			BioPAXElement bean = null;
+			if ( BIOPAX_NS.equals(r.getNamespaceURI()) && !SKIPPED_CLASSES.contains(type) && uri != null
+					&& model.getByID(uri) == null ) {
+				bean = factory.create(type, uri);
+			}
+			if ( bean == null ) {
+				skipElement(r);
+				continue;
+			}
+			model.add(bean);
+			readProperties(r, bean, base, references);
+		}
+		
+		for ( Reference reference : references ) {
+			BioPAXElement value = model.getByID(reference.uri);
+			// null if it is a skipped object
+			if ( value != null ) {
+				reference.editor.setValueToBean(value, reference.bean);
+			}
+		}
+		return model;
+	}
+	
+	// reads the property elements up to the end of the object element
+	private void readProperties(XMLStreamReader r, BioPAXElement bean, String base, List<Reference> references)
+			throws XMLStreamException {
+		while ( r.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+			String property = r.getLocalName();
+			PropertyEditor editor = SKIPPED_PROPERTIES.contains(property) ? null
+				: SimpleEditorMap.L3.getEditorForProperty(property, bean.getModelInterface());
+			if ( editor == null ) {
+				skipElement(r);
+			} else if ( editor instanceof ObjectPropertyEditor ) {
+				String resource = r.getAttributeValue(RDF_NS, "resource");
+				if ( resource != null ) {
+					references.add(new Reference(bean, editor, uri(base, resource, null)));
+				}
+				// inline objects are not supported (paxtools never writes them)
+				skipElement(r);
+			} else {
+				editor.setValueToBean(value(editor.getRange(), r.getElementText().trim()), bean);
+			}
+		}
+	}
+	
+	private static XMLInputFactory xmlInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+	
+	// moves to the end of the current element, ignoring its content
+	static void skipElement(XMLStreamReader r) throws XMLStreamException {
+		int depth = 1;
+		while ( depth > 0 ) {
+			int event = r.next();
+			if ( event == XMLStreamConstants.START_ELEMENT ) {
+				depth++;
+			} else if ( event == XMLStreamConstants.END_ELEMENT ) {
+				depth--;
+			}
+		}
+	}
+	
+	// rdf:about/rdf:resource (absolute, or relative to the base) or rdf:ID
+	static String uri(String base, String about, String id) {
+		if ( about != null ) {
+			return about.startsWith("#") ? base + about.substring(1) : about;
+		}
+		return id == null ? null : base + id;
+	}
+	
+	// a data property value of the given type
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static Object value(Class range, String text) {
+		if ( range.isEnum() ) {
+			return Enum.valueOf(range, text);
+		}
+		if ( range == Boolean.class || range == boolean.class ) {
+			return Boolean.valueOf(text);
+		}
+		if ( range == Integer.class || range == int.class ) {
+			return Integer.valueOf(text);
+		}
+		if ( range == Float.class || range == float.class ) {
+			return Float.valueOf(text);
+		}
+		if ( range == Double.class || range == double.class ) {
+			return Double.valueOf(text);
+		}
+		return text;
+	}
+}
@@ -0,0 +1,664 @@
+package factoid.converter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.biopax.paxtools.controller.ObjectPropertyEditor;
+import org.biopax.paxtools.controller.PropertyEditor;
+import org.biopax.paxtools.controller.SimpleEditorMap;
+import org.biopax.paxtools.model.BioPAXElement;
+import org.biopax.paxtools.model.BioPAXFactory;
+import org.biopax.paxtools.model.BioPAXLevel;
+import org.biopax.paxtools.model.Model;
+import org.biopax.paxtools.model.level3.Control;
+import org.biopax.paxtools.model.level3.Interaction;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import factoid.model.IdGenerator;
+
+/*
+ * Converts a BioPAX file that is too large to be parsed into one Model, with a bounded amount of memory:
+ * 1. the objects the conversion uses (see SelectiveBiopaxReader) are spooled, one record each, to a file,
+ *    indexed by the 64-bit hash of their URI, in an open addressing map that is kept at most half full
+ *    (a key, an offset and a used flag per slot: 34 to 68 bytes per object in memory, and the old
+ *    arrays on top of that while it grows);
+ * 2. the root interactions are converted in shards of a fixed number: a small Model is loaded with the
+ *    objects each shard's interactions refer to (directly or not), and converted like the whole model is;
+ * 3. the PMID documents of the shards are spilled to partition files (by PMID), and, at the end,
+ *    the parts of each PMID document are merged, one partition at a time, to a run file in the PMID order;
+ *    a partition file larger than the max partition size is split (by PMID) again first, so the merge
+ *    memory does not grow with the input;
+ * 4. the runs are merged (a document of each in memory) into the result, in the PMID order.
+ * The result is NDJSON, like BiopaxToFactoid.convertToNdjson, or one JSON object, like BiopaxToFactoid.convert.
+ * The ids are always deterministic (see IdGenerator), whatever the configured ones, as the parts of an entity
+ * in several shards are told apart by them: the documents are those of BiopaxToFactoid with deterministic ids,
+ * but for the order of their elements (the shards', not the URIs').
+ */
+public class ShardedBiopaxToFactoid {
+	
+	private final BioPAXFactory factory = BioPAXLevel.L3.getDefaultFactory();
+	
+	private final int shardSize;
+	private final int partitions;
+	private final long maxPartitionSize;
+	private final Path directory;
+	
+	private CancellationToken cancellationToken = CancellationToken.NONE;
+	
+	/**
+	 * @param shardSize root interactions (and what they refer to) in memory at a time
+	 * @param partitions files the PMID documents are spilled to (one of them is in memory at a time)
+	 * @param maxPartitionSize bytes of a partition file merged in memory; larger ones are split first
+	 * @param directory where the temporary files are created (deleted in the end)
+	 */
+	public ShardedBiopaxToFactoid(int shardSize, int partitions, long maxPartitionSize, Path directory) {
+		this.shardSize = shardSize;
+		this.partitions = partitions;
+		this.maxPartitionSize = maxPartitionSize;
+		this.directory = directory;
+	}
+	
+	public void setCancellationToken(CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+	}
+	
+	public void convertToNdjson(InputStream in, Writer out) throws IOException {
+		convert(in, new DocumentWriter(out, true));
+	}
+	
+	// {PMID: elements, ...}
+	public void convertToJson(InputStream in, Writer out) throws IOException {
+		convert(in, new DocumentWriter(out, false));
+	}
+	
+	private void convert(InputStream in, DocumentWriter out) throws IOException {
+		Path dir = Files.createTempDirectory(directory, "factoid-shards");
+		try {
+			Path spool = dir.resolve("objects");
+			Spool objects = spool(in, spool);
+			Path[] parts = new Path[partitions];
+			for ( int i = 0; i < partitions; i++ ) {
+				parts[i] = dir.resolve("pmids-" + i);
+			}
+			try (FileChannel channel = FileChannel.open(spool, StandardOpenOption.READ)) {
+				convertShards(objects, channel, parts);
+			}
+			List<Path> runs = new ArrayList<>();
+			for ( Path part : parts ) {
+				merge(part, runs, 0);
+			}
+			out.begin();
+			mergeRuns(runs, out);
+			out.end();
+		} finally {
+			try (Stream<Path> files = Files.list(dir)) {
+				for ( Path file : (Iterable<Path>) files::iterator ) {
+					Files.deleteIfExists(file);
+				}
+			}
+			Files.deleteIfExists(dir);
+		}
+	}
+	
+	// the index of the spooled objects and the root interactions
+	private static class Spool {
+		final LongLongMap offsets = new LongLongMap();
+		final LongList roots = new LongList();
+	}
+	
+	// One pass over the RDF/XML: each (kept) object is written as
+	// uri, type, number of properties, then name, is-reference, value of each.
+	private Spool spool(InputStream in, Path file) throws IOException {
+		Spool spool = new Spool();
+		LongList interactions = new LongList();
+		LongLongMap controlled = new LongLongMap();
+		
+		try (CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+				DataOutputStream out = new DataOutputStream(counter);
+				FileChannel written = FileChannel.open(file, StandardOpenOption.READ)) {
+			// the hardened factory (no DTDs or external entities), as the input is untrusted
+			XMLStreamReader r = SelectiveBiopaxReader.XML_INPUT_FACTORY.createXMLStreamReader(in);
+			String base = "";
+			List<String[]> properties = new ArrayList<>();
+			while ( r.hasNext() ) {
+				if ( r.next() != XMLStreamConstants.START_ELEMENT ) {
+					continue;
+				}
+				if ( SelectiveBiopaxReader.RDF_NS.equals(r.getNamespaceURI()) && "RDF".equals(r.getLocalName()) ) {
+					String xmlBase = r.getAttributeValue(XMLConstants.XML_NS_URI, "base");
+					base = xmlBase == null ? "" : xmlBase;
+					continue;
+				}
+				cancellationToken.check();
+				String type = r.getLocalName();
+				String uri = SelectiveBiopaxReader.uri(base, r.getAttributeValue(SelectiveBiopaxReader.RDF_NS, "about"),
+						r.getAttributeValue(SelectiveBiopaxReader.RDF_NS, "ID"));
+				Class<? extends BioPAXElement> javaClass = null;
+				if ( SelectiveBiopaxReader.BIOPAX_NS.equals(r.getNamespaceURI())
+						&& !SelectiveBiopaxReader.SKIPPED_CLASSES.contains(type) && uri != null ) {
+					long spooled = spool.offsets.get(hash(uri));
+					if ( spooled < 0 ) {
+						javaClass = BioPAXLevel.L3.getInterfaceForName(type);
+					} else {
+						// the same object again (skipped), unless it is another one with the same hash
+						out.flush();
+						checkUri(readString(record(written, spooled)), uri);
+					}
+				}
+				if ( javaClass == null ) {
+					SelectiveBiopaxReader.skipElement(r);
+					continue;
+				}
+				
+				properties.clear();
+				while ( r.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+					String property = r.getLocalName();
+					PropertyEditor editor = SelectiveBiopaxReader.SKIPPED_PROPERTIES.contains(property) ? null
+						: SimpleEditorMap.L3.getEditorForProperty(property, javaClass);
+					if ( editor == null ) {
+						SelectiveBiopaxReader.skipElement(r);
+					} else if ( editor instanceof ObjectPropertyEditor ) {
+						String resource = r.getAttributeValue(SelectiveBiopaxReader.RDF_NS, "resource");
+						if ( resource != null ) {
+							properties.add(new String[] { property, "r", SelectiveBiopaxReader.uri(base, resource, null) });
+						}
+						SelectiveBiopaxReader.skipElement(r);
+					} else {
+						properties.add(new String[] { property, "d", r.getElementText().trim() });
+					}
+				}
+				
+				long offset = counter.count;
+				long key = hash(uri);
+				writeString(out, uri);
+				writeString(out, type);
+				out.writeInt(properties.size());
+				for ( String[] property : properties ) {
+					writeString(out, property[0]);
+					out.writeBoolean(property[1].equals("r"));
+					writeString(out, property[2]);
+					if ( property[0].equals("controlled") && Control.class.isAssignableFrom(javaClass) ) {
+						controlled.put(hash(property[2]), offset);
+					}
+				}
+				spool.offsets.put(key, offset);
+				if ( Interaction.class.isAssignableFrom(javaClass) ) {
+					interactions.add(key);
+				}
+			}
+			r.close();
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException("Invalid BioPAX RDF/XML: " + e.getMessage(), e);
+		}
+		
+		// the interactions that no other one controls
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			for ( int i = 0; i < interactions.size; i++ ) {
+				long key = interactions.values[i];
+				long control = controlled.get(key);
+				if ( control < 0 ) {
+					spool.roots.add(spool.offsets.get(key));
+				} else {
+					checkControlled(channel, control, readString(record(channel, spool.offsets.get(key))));
+				}
+			}
+		}
+		return spool;
+	}
+	
+	// the record (see spool) at the offset of the spool file
+	private static DataInputStream record(FileChannel channel, long offset) throws IOException {
+		channel.position(offset);
+		return new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1024));
+	}
+	
+	// Objects are known by the hash of their URI only, so different URIs with the same hash would be
+	// mixed up (an object dropped, a reference to the wrong one): fail instead, with the spooled URI
+	// (the URI of the object at the offset of the hash) checked wherever it can differ.
+	private static void checkUri(String spooled, String uri) {
+		if ( !uri.equals(spooled) ) {
+			throw new IllegalStateException("URI hash collision: " + uri + " and " + spooled);
+		}
+	}
+	
+	// the control (at the offset) that an interaction is excluded from the roots for does control it
+	private static void checkControlled(FileChannel channel, long control, String uri) throws IOException {
+		DataInputStream in = record(channel, control);
+		String controlUri = readString(in);
+		readString(in);
+		int n = in.readInt();
+		for ( int i = 0; i < n; i++ ) {
+			String property = readString(in);
+			in.readBoolean();
+			String value = readString(in);
+			if ( property.equals("controlled") && value.equals(uri) ) {
+				return;
+			}
+		}
+		throw new IllegalStateException("URI hash collision: " + uri + " and a value controlled by " + controlUri);
+	}
+	
+	private void convertShards(Spool spool, FileChannel channel, Path[] parts) throws IOException {
+		BufferedWriter[] writers = new BufferedWriter[parts.length];
+		try {
+			for ( int i = 0; i < parts.length; i++ ) {
+				writers[i] = Files.newBufferedWriter(parts[i], StandardCharsets.UTF_8);
+			}
+			BiopaxToFactoid converter = new BiopaxToFactoid();
+			converter.setCancellationToken(cancellationToken);
+			// derived from the PMIDs and URIs, so the same in every shard
+			converter.setIdGenerator(IdGenerator.of(IdGenerator.Mode.DETERMINISTIC, ""));
+			for ( int start = 0; start < spool.roots.size; start += shardSize ) {
+				long[] shard = Arrays.copyOfRange(spool.roots.values, start, Math.min(start + shardSize, spool.roots.size));
+				List<Interaction> roots = new ArrayList<>();
+				load(spool, channel, shard, roots);
+				JsonObject documents = converter.convert(PmidIndex.build(roots, cancellationToken), ConversionBudget.UNLIMITED)
+						.getDocuments();
+				for ( Map.Entry<String, JsonElement> document : documents.entrySet() ) {
+					Writer writer = writers[Math.floorMod(document.getKey().hashCode(), parts.length)];
+					writeLine(writer, document.getKey(), document.getValue().getAsJsonArray());
+				}
+			}
+		} finally {
+			for ( BufferedWriter writer : writers ) {
+				if ( writer != null ) {
+					writer.close();
+				}
+			}
+		}
+	}
+	
+	// a Model of the shard's interactions and all the (spooled) objects they refer to
+	private Model load(Spool spool, FileChannel channel, long[] shard, List<Interaction> roots) throws IOException {
+		Model model = factory.createModel();
+		Set<Long> rootOffsets = new HashSet<>();
+		Set<Long> queued = new HashSet<>();
+		Deque<Long> pending = new ArrayDeque<>();
+		for ( long offset : shard ) {
+			rootOffsets.add(offset);
+			queued.add(offset);
+			pending.add(offset);
+		}
+		
+		List<SelectiveBiopaxReader.Reference> references = new ArrayList<>();
+		Map<Long, String> loaded = new HashMap<>();
+		while ( !pending.isEmpty() ) {
+			cancellationToken.check();
+			long offset = pending.poll();
+			DataInputStream in = record(channel, offset);
+			String uri = readString(in);
+			loaded.put(offset, uri);
+			String type = readString(in);
+			BioPAXElement bean = factory.create(BioPAXLevel.L3.getInterfaceForName(type), uri);
+			int n = in.readInt();
+			if ( bean == null ) {
+				continue;
+			}
+			model.add(bean);
+			if ( rootOffsets.contains(offset) ) {
+				roots.add((Interaction) bean);
+			}
+			for ( int i = 0; i < n; i++ ) {
+				String property = readString(in);
+				boolean reference = in.readBoolean();
+				String value = readString(in);
+				PropertyEditor editor = SimpleEditorMap.L3.getEditorForProperty(property, bean.getModelInterface());
+				if ( !reference ) {
+					editor.setValueToBean(SelectiveBiopaxReader.value(editor.getRange(), value), bean);
+					continue;
+				}
+				long target = spool.offsets.get(hash(value));
+				// not spooled - a skipped object
+				if ( target >= 0 ) {
+					references.add(new SelectiveBiopaxReader.Reference(bean, editor, value));
+					if ( queued.add(target) ) {
+						pending.add(target);
+					}
+				}
+			}
+		}
+		
+		for ( SelectiveBiopaxReader.Reference reference : references ) {
+			BioPAXElement value = model.getByID(reference.uri);
+			if ( value != null ) {
+				reference.editor.setValueToBean(value, reference.bean);
+			} else {
+				// the object loaded for the reference is another one (or was not created)
+				checkUri(loaded.get(spool.offsets.get(hash(reference.uri))), reference.uri);
+			}
+		}
+		return model;
+	}
+	
+	// The parts of the documents in the partition, merged per PMID, to runs (see mergeInMemory).
+	// A partition larger than the max size is split into smaller ones (by another hash of the PMIDs) that are merged
+	// in turn, unless the split does not make it smaller (the parts of one PMID are larger than that).
+	private void merge(Path part, List<Path> runs, int depth) throws IOException {
+		long size = Files.size(part);
+		if ( size > maxPartitionSize ) {
+			Path[] subparts = split(part, (int) Math.min(size / maxPartitionSize + 1, partitions), depth);
+			Files.delete(part);
+			for ( Path subpart : subparts ) {
+				if ( Files.size(subpart) < size ) {
+					merge(subpart, runs, depth + 1);
+				} else {
+					runs.add(mergeInMemory(subpart));
+				}
+			}
+			return;
+		}
+		runs.add(mergeInMemory(part));
+	}
+	
+	// the lines of the partition file, in n files by the PMID (a line at a time in memory)
+	private Path[] split(Path part, int n, int depth) throws IOException {
+		Path[] subparts = new Path[n];
+		BufferedWriter[] writers = new BufferedWriter[n];
+		try (BufferedReader reader = Files.newBufferedReader(part, StandardCharsets.UTF_8)) {
+			for ( int i = 0; i < n; i++ ) {
+				subparts[i] = part.resolveSibling(part.getFileName() + "-" + i);
+				writers[i] = Files.newBufferedWriter(subparts[i], StandardCharsets.UTF_8);
+			}
+			String line;
+			while ( (line = reader.readLine()) != null ) {
+				cancellationToken.check();
+				// salted with the depth, as the PMIDs of the partition have the same hash at the level above
+				writers[Math.floorMod(hash(depth + ":" + pmid(line)), n)].write(line + '\n');
+			}
+		} finally {
+			for ( BufferedWriter writer : writers ) {
+				if ( writer != null ) {
+					writer.close();
+				}
+			}
+		}
+		return subparts;
+	}
+	
+	// the PMID of a line (see writeLine, the first name), without parsing the elements
+	private static String pmid(String line) throws IOException {
+		try (JsonReader reader = new JsonReader(new StringReader(line))) {
+			reader.beginObject();
+			reader.nextName();
+			return reader.nextString();
+		}
+	}
+	
+	// The documents of the partition file, in the PMID order, to a run file (that replaces it).
+	// An entity in the parts of several shards has the same (derived) id, and is kept once.
+	private Path mergeInMemory(Path part) throws IOException {
+		TreeMap<String, JsonArray> documents = new TreeMap<>(PmidIndex.PMID_ORDER);
+		Map<String, Set<String>> ids = new HashMap<>();
+		try (BufferedReader reader = Files.newBufferedReader(part, StandardCharsets.UTF_8)) {
+			String line;
+			while ( (line = reader.readLine()) != null ) {
+				JsonObject document = JsonParser.parseString(line).getAsJsonObject();
+				String pmid = document.get("pmid").getAsString();
+				JsonArray elements = documents.computeIfAbsent(pmid, k -> new JsonArray());
+				Set<String> documentIds = ids.computeIfAbsent(pmid, k -> new HashSet<>());
+				for ( JsonElement element : document.get("elements").getAsJsonArray() ) {
+					if ( documentIds.add(element.getAsJsonObject().get("id").getAsString()) ) {
+						elements.add(element);
+					}
+				}
+			}
+		}
+		Path run = part.resolveSibling(part.getFileName() + "-merged");
+		try (BufferedWriter writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+			for ( Map.Entry<String, JsonArray> document : documents.entrySet() ) {
+				writeLine(writer, document.getKey(), document.getValue());
+			}
+		}
+		Files.delete(part);
+		return run;
+	}
+	
+	// The documents of the runs (each in the PMID order, with PMIDs of its own) in the PMID order,
+	// with the next document of each run in memory
+	private void mergeRuns(List<Path> runs, DocumentWriter out) throws IOException {
+		PriorityQueue<Run> queue = new PriorityQueue<>(Math.max(runs.size(), 1),
+				(a, b) -> PmidIndex.PMID_ORDER.compare(a.pmid, b.pmid));
+		List<BufferedReader> readers = new ArrayList<>();
+		try {
+			for ( Path path : runs ) {
+				BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+				readers.add(reader);
+				Run run = new Run(reader);
+				if ( run.next() ) {
+					queue.add(run);
+				}
+			}
+			while ( !queue.isEmpty() ) {
+				cancellationToken.check();
+				Run run = queue.poll();
+				out.write(run.pmid, run.line);
+				if ( run.next() ) {
+					queue.add(run);
+				}
+			}
+		} finally {
+			for ( BufferedReader reader : readers ) {
+				reader.close();
+			}
+		}
+	}
+	
+	// a run file and its current line
+	private static class Run {
+		
+		final BufferedReader reader;
+		String line;
+		String pmid;
+		
+		Run(BufferedReader reader) {
+			this.reader = reader;
+		}
+		
+		boolean next() throws IOException {
+			line = reader.readLine();
+			if ( line == null ) {
+				return false;
+			}
+			pmid = pmid(line);
+			return true;
+		}
+	}
+	
+	// The merged documents, one at a time: NDJSON lines, or the members of one JSON object
+	private static class DocumentWriter {
+		
+		private final Writer out;
+		private final boolean ndjson;
+		private final JsonWriter writer;
+		
+		DocumentWriter(Writer out, boolean ndjson) {
+			this.out = out;
+			this.ndjson = ndjson;
+			writer = ndjson ? null : new JsonWriter(out);
+		}
+		
+		void begin() throws IOException {
+			if ( !ndjson ) {
+				writer.beginObject();
+			}
+		}
+		
+		// a line of a run (see writeLine)
+		void write(String pmid, String line) throws IOException {
+			if ( ndjson ) {
+				out.write(line);
+				out.write('\n');
+				out.flush();
+			} else {
+				writer.name(pmid);
+				BiopaxToFactoid.GSON.toJson(JsonParser.parseString(line).getAsJsonObject().get("elements"), writer);
+			}
+		}
+		
+		void end() throws IOException {
+			if ( !ndjson ) {
+				writer.endObject();
+				writer.flush();
+			}
+		}
+	}
+	
+	// {"pmid": ..., "elements": [...]}
+	private static void writeLine(Writer out, String pmid, JsonArray elements) throws IOException {
+		JsonWriter writer = new JsonWriter(out);
+		writer.beginObject();
+		writer.name("pmid").value(pmid);
+		writer.name("elements");
+		BiopaxToFactoid.GSON.toJson(elements, writer);
+		writer.endObject();
+		out.write('\n');
+	}
+	
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	// 64-bit FNV-1a of the URI; the objects are told apart by it (a collision is very unlikely)
+	static long hash(String uri) {
+		long h = 0xcbf29ce484222325L;
+		for ( int i = 0; i < uri.length(); i++ ) {
+			h ^= uri.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+	
+	private static class CountingOutputStream extends FilterOutputStream {
+		
+		long count;
+		
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+	
+	private static class LongList {
+		long[] values = new long[1024];
+		int size;
+		
+		void add(long value) {
+			if ( size == values.length ) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+	}
+	
+	// open addressing long -> (non-negative) long map, without boxing; get returns -1 if there is no entry
+	private static class LongLongMap {
+		private long[] keys = new long[1 << 12];
+		private long[] values = new long[1 << 12];
+		private boolean[] used = new boolean[1 << 12];
+		private int size;
+		
+		long get(long key) {
+			int mask = keys.length - 1;
+			for ( int i = slot(key, mask); used[i]; i = (i + 1) & mask ) {
+				if ( keys[i] == key ) {
+					return values[i];
+				}
+			}
+			return -1;
+		}
+		
+		void put(long key, long value) {
+			if ( 2 * (size + 1) > keys.length ) {
+				grow();
+			}
+			int mask = keys.length - 1;
+			int i = slot(key, mask);
+			while ( used[i] && keys[i] != key ) {
+				i = (i + 1) & mask;
+			}
+			if ( !used[i] ) {
+				used[i] = true;
+				keys[i] = key;
+				size++;
+			}
+			values[i] = value;
+		}
+		
+		private static int slot(long key, int mask) {
+			return (int) (key ^ (key >>> 32)) & mask;
+		}
+		
+		private void grow() {
+			long[] oldKeys = keys;
+			long[] oldValues = values;
+			boolean[] oldUsed = used;
+			keys = new long[oldKeys.length * 2];
+			values = new long[oldKeys.length * 2];
+			used = new boolean[oldKeys.length * 2];
+			size = 0;
+			for ( int i = 0; i < oldKeys.length; i++ ) {
+				if ( oldUsed[i] ) {
+					put(oldKeys[i], oldValues[i]);
+				}
+			}
+		}
+	}
+}
@@ -5,18 +5,19 @@
 
 package factoid.model;
 
+import java.io.OutputStream;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.UUID;
 import java.util.stream.Collectors;
 
-import org.apache.commons.collections4.map.MultiKeyMap;
 import org.biopax.paxtools.io.SimpleIOHandler;
 import org.biopax.paxtools.model.BioPAXElement;
 import org.biopax.paxtools.model.BioPAXFactory;
@@ -50,7 +51,11 @@ import org.biopax.paxtools.model.level3.SmallMoleculeReference;
 import org.biopax.paxtools.model.level3.UnificationXref;
 import org.biopax.paxtools.model.level3.Xref;
 
+import io.micrometer.core.instrument.Timer;
+
 public class BioPAXModel {
+
+	private static final Timer OWL_WRITE_TIMER = ConversionMetrics.phase(ConversionMetrics.OWL_WRITE);
 	
 	// Underlying paxtools model
 	private Model model;
@@ -60,14 +65,27 @@ public class BioPAXModel {
 	// Map of xref id to xref itself
 	private Map<String, RelationshipXref> xrefMap;
 	private Map<String, BioSource> organismMap;
-	// Multiple key map of entity reference class and name to entity reference itself
-	private MultiKeyMap<Object, EntityReference> entityReferenceMap;
-	// Multiple key map of entity name class and name to entity reference itself
-	private MultiKeyMap<Object, Set<PhysicalEntity>> noRefPhysicalEntityMap;
+	// Map of entity reference class, name, xref and organism to entity reference itself
+	private Map<EntityReferenceKey, EntityReference> entityReferenceMap;
+	// Map of complex name and components to the complexes themselves
+	private Map<ComplexKey, Set<Complex>> complexMap;
+	// Map of entity reference to its physical entities by their state, to find a matching entity without scanning them
+	private Map<EntityReference, Map<EntityState, PhysicalEntity>> entityStateMap;
+	// Map of entity reference to its modification features by modification type
+	private Map<EntityReference, Map<String, ModificationFeature>> modificationFeatureMap;
+	// Map of modification type to its single (interned) instance, shared by the features of all entity references
+	private Map<String, String> modificationTypeMap;
+	private final IdGenerator idGenerator;
 	
 	// Section: constructors
 	
 	public BioPAXModel() {
+		this(IdGenerator.RANDOM);
+	}
+	
+	// the URIs of the new elements come from the generator
+	public BioPAXModel(IdGenerator idGenerator) {
+		this.idGenerator = idGenerator;
 		BioPAXFactory factory = BioPAXLevel.L3.getDefaultFactory();
 		model = factory.createModel();
 		
@@ -76,8 +94,11 @@ public class BioPAXModel {
 //		cellularLocationMap = new HashMap<String, CellularLocationVocabulary>();
 		xrefMap = new HashMap<String, RelationshipXref>();
 		organismMap = new HashMap<String, BioSource>();
-		entityReferenceMap = new MultiKeyMap<Object, EntityReference>();
-		noRefPhysicalEntityMap = new MultiKeyMap<Object, Set<PhysicalEntity>>();
+		entityReferenceMap = new HashMap<EntityReferenceKey, EntityReference>();
+		complexMap = new HashMap<ComplexKey, Set<Complex>>();
+		entityStateMap = new HashMap<EntityReference, Map<EntityState, PhysicalEntity>>();
+		modificationFeatureMap = new HashMap<EntityReference, Map<String, ModificationFeature>>();
+		modificationTypeMap = new HashMap<String, String>();
 	}
 
 	//for tests
@@ -108,7 +129,7 @@ public class BioPAXModel {
 	// a pathway component for the element if it is an instance of
 	// interaction or a subclass of interaction
 	public <T extends BioPAXElement> T addNew(Class<T> c, boolean omitPathwayComponent) {
-		return addNew(c, generateUUID(), omitPathwayComponent);
+		return addNew(c, idGenerator.next(), omitPathwayComponent);
 	}
 	
 	// Just get a physical entity, create it if not available yet.
@@ -124,12 +145,11 @@ public class BioPAXModel {
 		else if (isSimplePhysicalEntityOrSubclass(c)) {
 			assert entityRef != null : "Entity reference must be specified to obtain a SimplePhysicalEntity";
 			
-			Set<T> entities = (Set<T>) entityRef.getEntityReferenceOf();
-			entity = findMatchingEntity(entities, modificationTypes, modificationNotTypes, inComplex);
+			entity = (T) findMatchingEntity(entityRef, modificationTypes, modificationNotTypes, inComplex);
 		}
 		
 		if (entity == null) {
-			entity = addNewPhysicalEntity(c, name, entityRef, modificationTypes, modificationNotTypes, componentModels);
+			entity = addNewPhysicalEntity(c, name, entityRef, modificationTypes, modificationNotTypes, inComplex, componentModels);
 		}
 		
 		return entity;
@@ -195,13 +215,19 @@ public class BioPAXModel {
 	// Get modification feature that has the given modification type. Create one if not available.
 	public ModificationFeature getOrCreateModificationFeature(String modificationType, EntityReference entityRef) {
 		
-		Set<EntityFeature> referenceModifications = entityRef.getEntityFeature();
-		ModificationFeature modificationFeature = getFeatureByModificationType((Set)referenceModifications, modificationType);
+		Map<String, ModificationFeature> referenceModifications = modificationFeatureMap.get(entityRef);
+		if (referenceModifications == null) {
+			referenceModifications = new HashMap<String, ModificationFeature>();
+			modificationFeatureMap.put(entityRef, referenceModifications);
+		}
+		ModificationFeature modificationFeature = referenceModifications.get(modificationType);
 		
 		// if a modification feature does not exists for the modification type create one here and put it to the map
 		if (modificationFeature == null) {
+			modificationType = internModificationType(modificationType);
 			modificationFeature = addNewModificationFeature(modificationType);
 			entityRef.addEntityFeature(modificationFeature);
+			referenceModifications.put(modificationType, modificationFeature);
 		}
 		
 		return modificationFeature;
@@ -222,15 +248,17 @@ public class BioPAXModel {
 			organism = getOrCreateOrganism(organismModel);
 		}
 		
+		EntityReferenceKey key = new EntityReferenceKey(c, name, xref, organismModel);
+		
 		// if a name is specified try to get an existing entity reference with the
 		// same name and entity class first
 		if (name != null) {
-			entityRef = (T) entityReferenceMap.get(c, name, xref, organism);
+			entityRef = (T) entityReferenceMap.get(key);
 		}
 		
 		if (entityRef == null) {
 			entityRef = addNewEntityReference(c, name, xref, organism);
-			entityReferenceMap.put(c, name, xref, organism, entityRef);
+			entityReferenceMap.put(key, entityRef);
 		}
 		
 		return entityRef;
@@ -309,23 +337,39 @@ public class BioPAXModel {
 	}
 	
 	public String convertToOwl() {
-		return SimpleIOHandler.convertToOwl(model);
+		return OWL_WRITE_TIMER.record(() -> SimpleIOHandler.convertToOwl(model));
+	}
+	
+	// write the model as RDF/XML directly to the output stream (no intermediate String)
+	public void convertToOwl(OutputStream out) {
+		OWL_WRITE_TIMER.record(() -> new SimpleIOHandler().convertToOWL(model, out));
 	}
 	
 	// Section: private helper methods
 	
-	// Generate unique id for new elements
-	private static String generateUUID() {
-		return UUID.randomUUID().toString();
+	// Find the physical entity of the entity reference that has the expected modification types
+	// and is a complex component or not as expected
+	private PhysicalEntity findMatchingEntity(EntityReference entityRef, Set<String> modificationTypes, Set<String> modificationNotTypes, boolean inComplex){
+		
+		Map<EntityState, PhysicalEntity> entities = entityStateMap.get(entityRef);
+		
+		if (entities == null) {
+			return null;
+		}
+		
+		return entities.get(new EntityState(inComplex, modificationTypes, modificationNotTypes));
 	}
 	
-	// Find the physical entity that has the expected cellular location and modification types
-	private static <T extends PhysicalEntity> T findMatchingEntity(Set<T> entities, Set<String> modificationTypes, Set<String> modificationNotTypes, boolean inComplex){		
+	// Find the complex that has the expected name, components and modification types
+	private Complex findMatchingComplex(String name, List<EntityModel> componentModels, Set<String> modificationTypes, Set<String> modificationNotTypes) {
+		Set<Complex> candidates = complexMap.get(new ComplexKey(name, componentKeysOfModels(componentModels)));
 		
-		Optional<T> match = entities.stream().filter(t -> {
-			boolean tInComplex = !t.getComponentOf().isEmpty();
-			return tInComplex == inComplex
-					&& isAbstractionOf(getModificationFeatureOfEntity(t, false), modificationTypes)
+		if ( candidates == null ) {
+			return null;
+		}
+		
+		Optional<Complex> match = candidates.stream().filter(t -> {
+			return isAbstractionOf(getModificationFeatureOfEntity(t, false), modificationTypes)
 					&& isAbstractionOf(getModificationFeatureOfEntity(t, true), modificationNotTypes);
 		} ).findFirst();
 		
@@ -336,23 +380,23 @@ public class BioPAXModel {
 		return null;
 	}
 	
-	private static boolean compareComplexComponents(List<EntityModel> componentModels, Set<PhysicalEntity> components) {
-		// It is expected the input does not include any interaction whose one side is a component of any complex.
-		// Such interactions must be moved to the complex itself in the input.
-		// Therefore, there is no need to handle modifications etc here, just name and xref is enough.
-		String seperator = "\t";
-		Set<String> modelSummary = componentModels.stream().map(m -> {
-			String xrefId = null;
-			String xrefDb = null;
-			XrefModel xref = m.getXref();
-			if ( xref != null ) {
-				xrefId = xref.getId();
-				xrefDb = xref.getDb();
+	// It is expected the input does not include any interaction whose one side is a component of any complex.
+	// Such interactions must be moved to the complex itself in the input.
+	// Therefore, there is no need to handle modifications etc here, just name and xref is enough.
+	private static Set<ComponentKey> componentKeysOfModels(List<EntityModel> componentModels) {
+		Set<ComponentKey> keys = new HashSet<ComponentKey>();
+		if ( componentModels != null ) {
+			for ( EntityModel m : componentModels ) {
+				XrefModel xref = m.getXref();
+				keys.add(new ComponentKey(m.getName(), xref == null ? null : xref.getId(), xref == null ? null : xref.getDb()));
 			}
-			return m.getName() + seperator + xrefId + seperator + xrefDb;
-		}).collect(Collectors.toSet());
-		
-		Set<String> entitiesSummary = components.stream().map(c -> {
+		}
+		return keys;
+	}
+	
+	private static Set<ComponentKey> componentKeysOfEntities(Set<PhysicalEntity> components) {
+		Set<ComponentKey> keys = new HashSet<ComponentKey>();
+		for ( PhysicalEntity c : components ) {
 			String xrefId = null;
 			String xrefDb = null;
 			
@@ -366,32 +410,140 @@ public class BioPAXModel {
 				}
 			}
 			
-			return c.getName().iterator().next() + seperator + xrefId + seperator + xrefDb;
-		}).collect(Collectors.toSet());
+			keys.add(new ComponentKey(c.getDisplayName(), xrefId, xrefDb));
+		}
+		return keys;
+	}
+	
+	// A complex component as far as complex matching is concerned: its name and (entity reference) xref
+	private static final class ComponentKey {
+		private final String name;
+		private final String xrefId;
+		private final String xrefDb;
+		private final int hash;
+		
+		ComponentKey(String name, String xrefId, String xrefDb) {
+			this.name = name;
+			this.xrefId = xrefId;
+			this.xrefDb = xrefDb;
+			hash = Objects.hash(name, xrefId, xrefDb);
+		}
 		
-		return modelSummary.equals(entitiesSummary);
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof ComponentKey)) {
+				return false;
+			}
+			ComponentKey other = (ComponentKey) o;
+			return hash == other.hash && nullSafeEquals(name, other.name)
+					&& nullSafeEquals(xrefId, other.xrefId) && nullSafeEquals(xrefDb, other.xrefDb);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
 	}
 	
-	private  Complex findMatchingComplex(String name, List<EntityModel> componentModels, Set<String> modificationTypes, Set<String> modificationNotTypes) {
-		Set<PhysicalEntity> candidates = noRefPhysicalEntityMap.get(Complex.class, name);
+	// A complex by its name and components (in any order); computed once, when the complex is created,
+	// so that finding a matching complex is a lookup rather than a comparison with each complex of the name
+	private static final class ComplexKey {
+		private final String name;
+		private final Set<ComponentKey> components;
+		private final int hash;
 		
-		if ( candidates == null ) {
-			return null;
+		ComplexKey(String name, Set<ComponentKey> components) {
+			this.name = name;
+			this.components = components;
+			hash = 31 * Objects.hashCode(name) + components.hashCode();
 		}
 		
-		Optional<PhysicalEntity> match = candidates.stream().filter(t -> {
-			Set<PhysicalEntity> components = ((Complex) t).getComponent();
-			return isAbstractionOf(getModificationFeatureOfEntity(t, false), modificationTypes)
-					&& isAbstractionOf(getModificationFeatureOfEntity(t, true), modificationNotTypes)
-					&& compareComplexComponents(componentModels, components);
-					
-		} ).findFirst();
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof ComplexKey)) {
+				return false;
+			}
+			ComplexKey other = (ComplexKey) o;
+			return hash == other.hash && nullSafeEquals(name, other.name) && components.equals(other.components);
+		}
 		
-		if (match.isPresent()) {
-			return (Complex) match.get();
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+	
+	// An entity reference by its class, name, xref (id and db) and organism (id): the values the elements
+	// are created from rather than the elements themselves, hashed once
+	private static final class EntityReferenceKey {
+		private final Class<? extends EntityReference> c;
+		private final String name;
+		private final String xrefId;
+		private final String xrefDb;
+		private final String organismId;
+		private final int hash;
+		
+		EntityReferenceKey(Class<? extends EntityReference> c, String name, RelationshipXref xref, XrefModel organismModel) {
+			this.c = c;
+			this.name = name;
+			xrefId = xref == null ? null : xref.getId();
+			xrefDb = xref == null ? null : xref.getDb();
+			organismId = organismModel == null ? null : organismModel.getId();
+			hash = Objects.hash(c, name, xrefId, xrefDb, organismId);
 		}
 		
-		return null;
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof EntityReferenceKey)) {
+				return false;
+			}
+			EntityReferenceKey other = (EntityReferenceKey) o;
+			return hash == other.hash && c == other.c && nullSafeEquals(name, other.name)
+					&& nullSafeEquals(xrefId, other.xrefId) && nullSafeEquals(xrefDb, other.xrefDb)
+					&& nullSafeEquals(organismId, other.organismId);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+	
+	// The state of a physical entity that makes it distinct from the others of its entity reference:
+	// whether it is a complex component, and the terms of its modification features and not-features
+	// (null and empty are the same, the order does not matter)
+	private static final class EntityState {
+		private final boolean inComplex;
+		private final Set<String> modificationTypes;
+		private final Set<String> modificationNotTypes;
+		private final int hash;
+		
+		EntityState(boolean inComplex, Set<String> modificationTypes, Set<String> modificationNotTypes) {
+			this.inComplex = inComplex;
+			this.modificationTypes = canonical(modificationTypes);
+			this.modificationNotTypes = canonical(modificationNotTypes);
+			hash = 31 * (31 * Boolean.hashCode(inComplex) + this.modificationTypes.hashCode()) + this.modificationNotTypes.hashCode();
+		}
+		
+		private static Set<String> canonical(Set<String> types) {
+			return isEmptyOrNull(types) ? Collections.<String>emptySet() : new HashSet<String>(types);
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof EntityState)) {
+				return false;
+			}
+			EntityState other = (EntityState) o;
+			return hash == other.hash && inComplex == other.inComplex
+					&& modificationTypes.equals(other.modificationTypes)
+					&& modificationNotTypes.equals(other.modificationNotTypes);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
 	}
 	
 	// compare 2 object while staying away from null pointer exception
@@ -496,7 +648,7 @@ public class BioPAXModel {
 	
 	// Create a new physical entity with given properties
 	private <T extends PhysicalEntity> T addNewPhysicalEntity(Class<T> c, String name, EntityReference entityRef, 
-			Set<String> modificationTypes, Set<String> modificationNotTypes, List<EntityModel> componentModels) {
+			Set<String> modificationTypes, Set<String> modificationNotTypes, boolean inComplex, List<EntityModel> componentModels) {
 		
 		T entity = addNew(c);
 		
@@ -508,12 +660,9 @@ public class BioPAXModel {
 			assertSimplePhysicalEntityOrSubclass(c);
 			
 			((SimplePhysicalEntity) entity).setEntityReference(entityRef);
-		}
-		else {
-			if ( !noRefPhysicalEntityMap.containsKey(c, name) ) {
-				noRefPhysicalEntityMap.put(c, name, new HashSet<PhysicalEntity>());
-			}
-			noRefPhysicalEntityMap.get(c, name).add(entity);
+			// a component is added to its complex right after it is created
+			entityStateMap.computeIfAbsent(entityRef, r -> new HashMap<EntityState, PhysicalEntity>())
+				.put(new EntityState(inComplex, modificationTypes, modificationNotTypes), entity);
 		}
 		
 		if (modificationTypes != null) {
@@ -533,13 +682,19 @@ public class BioPAXModel {
 		if (componentModels != null) {
 			for(EntityModel model : componentModels) {
 				String cName = model.getName();
-				boolean inComplex = true;
+				boolean cInComplex = true;
 				EntityReference cRef = getOrCreateEntityReference(model.getEntityRefClass(), cName, model.getXref());
-				PhysicalEntity component = getOrCreatePhysicalEntity(model.getEntityClass(), cName, cRef, null, null, inComplex, null);
+				PhysicalEntity component = getOrCreatePhysicalEntity(model.getEntityClass(), cName, cRef, null, null, cInComplex, null);
 				((Complex) entity).addComponent(component);
 			}
 		}
 		
+		if (c == Complex.class) {
+			Complex complex = (Complex) entity;
+			complexMap.computeIfAbsent(new ComplexKey(name, componentKeysOfEntities(complex.getComponent())), k -> new HashSet<Complex>())
+				.add(complex);
+		}
+		
 		return entity;
 	}
 	
@@ -564,21 +719,15 @@ public class BioPAXModel {
 		return modificationFeature;
 	}
 	
-	// Get modification feature with the given modification type from a set of modification features
-	private ModificationFeature getFeatureByModificationType(Set<ModificationFeature> modificationFeatures,
-			String modificationType) {
-		
-		Iterator<ModificationFeature> it = modificationFeatures.iterator();
-		
-		while (it.hasNext()) {
-			ModificationFeature modificationFeature = it.next();
-			Set<String> terms = modificationFeature.getModificationType().getTerm();
-			if ( getOnlyElement(terms).equals(modificationType) ) {
-				return modificationFeature;
-			}
+	// the same few modification types (e.g. "active", "phosphorylation") come with each template,
+	// each in a String of its own; the terms of the features share a single one
+	private String internModificationType(String modificationType) {
+		String interned = modificationTypeMap.get(modificationType);
+		if (interned == null) {
+			interned = modificationType;
+			modificationTypeMap.put(interned, interned);
 		}
-		
-		return null;
+		return interned;
 	}
 	
 	// Create a new entity reference by given properties
@@ -0,0 +1,73 @@
+package factoid.model;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/*
+ * Micrometer meters shared by the converters and the web service: the time spent in each conversion
+ * phase ('factoid.phase' timer, tagged with the phase name) and distribution summaries of the document sizes.
+ * They are registered in the global registry, which the Spring Boot actuator also publishes (/actuator/metrics).
+ * The converters are plain objects, created per conversion by the web service as well as by the tests and
+ * other callers without a Spring context, so there is no registry to inject into them; Spring Boot adds its
+ * registry to the global one (management.metrics.use-global-registry, on by default), so these meters end up
+ * next to the ones the web components register in the injected MeterRegistry. Without Spring, they are no-ops
+ * unless a registry is added to Metrics.globalRegistry.
+ */
+public final class ConversionMetrics {
+
+	// phase names
+	public static final String JSON_PARSE = "json.parse";
+	public static final String TEMPLATE_BUILD = "template.build";
+	public static final String OWL_WRITE = "owl.write";
+	public static final String OWL_PARSE = "owl.parse";
+	public static final String SBGN_WRITE = "sbgn.write";
+	public static final String JSON_BUILD = "json.build";
+	public static final String JSON_WRITE = "json.write";
+
+	// 'source' tag values of the model/document summaries
+	public static final String FACTOID = "factoid";
+	public static final String BIOPAX = "biopax";
+
+	private ConversionMetrics() {
+	}
+
+	public static Timer phase(String phase) {
+		return Timer.builder("factoid.phase")
+			.tag("phase", phase)
+			.description("Time spent in a conversion phase")
+			.register(Metrics.globalRegistry);
+	}
+
+	// number of BioPAX elements of a model built from Factoid documents or parsed from RDF/XML
+	public static DistributionSummary modelElements(String source) {
+		return DistributionSummary.builder("factoid.model.elements")
+			.tag("source", source)
+			.description("BioPAX elements per model")
+			.register(Metrics.globalRegistry);
+	}
+
+	// number of interactions of an input (Factoid) or output (per PMID) document
+	public static DistributionSummary documentInteractions(String source) {
+		return DistributionSummary.builder("factoid.document.interactions")
+			.tag("source", source)
+			.description("Interactions per Factoid document")
+			.register(Metrics.globalRegistry);
+	}
+
+	public static DistributionSummary requestSize(String endpoint) {
+		return DistributionSummary.builder("factoid.request.size")
+			.tag("endpoint", endpoint)
+			.baseUnit("bytes")
+			.description("Request body size")
+			.register(Metrics.globalRegistry);
+	}
+
+	public static DistributionSummary responseSize(String endpoint) {
+		return DistributionSummary.builder("factoid.response.size")
+			.tag("endpoint", endpoint)
+			.baseUnit("bytes")
+			.description("Response body size")
+			.register(Metrics.globalRegistry);
+	}
+}
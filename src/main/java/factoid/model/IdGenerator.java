@@ -0,0 +1,69 @@
+package factoid.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Generates the ids of the created elements (BioPAX element URIs, Factoid JSON element ids), as UUIDs.
+ * RANDOM uses UUID.randomUUID() (a shared SecureRandom, which threads contend for under load);
+ * FAST uses the thread's own ThreadLocalRandom (not cryptographically strong, which ids need not be);
+ * the deterministic ids are derived from a seed (e.g. the input) and a sequence number or a key
+ * (e.g. the URI of the source element), so that the same input always gives the same output.
+ */
+public interface IdGenerator {
+	
+	IdGenerator RANDOM = () -> UUID.randomUUID().toString();
+	
+	IdGenerator FAST = () -> {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		// version 4 (random) UUID
+		long msb = (random.nextLong() & ~0xF000L) | 0x4000L;
+		long lsb = (random.nextLong() & ~(0xCL << 60)) | (0x8L << 60);
+		return new UUID(msb, lsb).toString();
+	};
+	
+	enum Mode {
+		RANDOM,
+		FAST,
+		DETERMINISTIC
+	}
+	
+	// the next id
+	String next();
+	
+	// an id for the given key; unless deterministic, just the next id
+	default String derive(String key) {
+		return next();
+	}
+	
+	// the seed is only used by the deterministic mode
+	static IdGenerator of(Mode mode, String seed) {
+		switch (mode) {
+			case FAST:
+				return FAST;
+			case DETERMINISTIC:
+				return deterministic(seed);
+			default:
+				return RANDOM;
+		}
+	}
+	
+	// name based (version 3) UUIDs of the seed's digest and the key or sequence number
+	static IdGenerator deterministic(String seed) {
+		String prefix = UUID.nameUUIDFromBytes(seed.getBytes(StandardCharsets.UTF_8)) + "/";
+		AtomicLong sequence = new AtomicLong();
+		return new IdGenerator() {
+			@Override
+			public String next() {
+				return derive("#" + sequence.incrementAndGet());
+			}
+			
+			@Override
+			public String derive(String key) {
+				return UUID.nameUUIDFromBytes((prefix + key).getBytes(StandardCharsets.UTF_8)).toString();
+			}
+		};
+	}
+}
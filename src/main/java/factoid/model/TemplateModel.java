@@ -1,9 +1,11 @@
 package factoid.model;
 
+import java.io.OutputStream;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.biopax.paxtools.model.Model;
 import org.biopax.paxtools.model.level3.BiochemicalReaction;
 import org.biopax.paxtools.model.level3.Catalysis;
 import org.biopax.paxtools.model.level3.Control;
@@ -32,7 +34,11 @@ public class TemplateModel {
 	}
 	
 	public TemplateModel() {
-		model = new BioPAXModel();
+		this(IdGenerator.RANDOM);
+	}
+	
+	public TemplateModel(IdGenerator idGenerator) {
+		model = new BioPAXModel(idGenerator);
 	}
 	
 	// Section: public methods
@@ -132,6 +138,15 @@ public class TemplateModel {
 		return model.convertToOwl();
 	}
 	
+	public void convertToOwl(OutputStream out) {
+		model.convertToOwl(out);
+	}
+	
+	// the underlying paxtools model (e.g. for converting to other formats without an RDF/XML round trip)
+	public Model getPaxtoolsModel() {
+		return model.getPaxtoolsModel();
+	}
+	
 	// Section: private helper methods
 	
 	private <T extends PhysicalEntity> T physicalEntityFromModel(EntityModel entityModel) {
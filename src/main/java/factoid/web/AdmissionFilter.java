@@ -0,0 +1,213 @@
+package factoid.web;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Admission control for the heavy (large BioPAX, URL and batch) conversions, so that a few huge uploads
+ * cannot exhaust the heap and the request threads and stall the small json-to-biopax/json-to-sbgn requests,
+ * which are never held back. A heavy request runs if it fits both the concurrency limit and the memory budget
+ * (its share is estimated from the Content-Length); otherwise it waits in a bounded queue. When the queue is full
+ * it is rejected right away with 429, when it has waited too long with 503 - both with a Retry-After header.
+ * The permits are held until the (asynchronous, streamed) response is complete.
+ */
+@Component
+public class AdmissionFilter extends OncePerRequestFilter {
+
+  // the request body is a URL, the size of the content to convert is unknown
+  private static final String URL_PATH = "/v2/biopax-url-to-json";
+
+  private final boolean enabled;
+  private final Set<String> heavyPaths;
+  private final int maxConcurrent;
+  private final long maxMemory;
+  private final double memoryFactor;
+  private final long unknownSizeEstimate;
+  private final int maxQueue;
+  private final long maxWaitMillis;
+  private final String retryAfter;
+
+  // guarded by this
+  private int running;
+  private long memory;
+  private int waiting;
+
+  private final Counter queueFull;
+  private final Counter timedOut;
+
+  public AdmissionFilter(ConverterProperties properties, MeterRegistry registry) {
+    ConverterProperties.Admission admission = properties.getAdmission();
+    enabled = admission.isEnabled();
+    heavyPaths = new HashSet<>(properties.getHeavyPaths());
+    maxConcurrent = admission.getMaxConcurrent();
+    maxMemory = admission.getMaxMemory().toBytes();
+    memoryFactor = admission.getMemoryFactor();
+    unknownSizeEstimate = admission.getUnknownSizeEstimate().toBytes();
+    maxQueue = admission.getMaxQueue();
+    maxWaitMillis = admission.getMaxWait().toMillis();
+    retryAfter = String.valueOf(Math.max(1, admission.getRetryAfter().getSeconds()));
+
+    queueFull = Counter.builder("factoid.admission.rejected").tag("reason", "queue-full")
+      .description("Heavy conversion requests rejected by the admission control").register(registry);
+    timedOut = Counter.builder("factoid.admission.rejected").tag("reason", "timeout")
+      .description("Heavy conversion requests rejected by the admission control").register(registry);
+    Gauge.builder("factoid.admission.running", this, AdmissionFilter::getRunning).register(registry);
+    Gauge.builder("factoid.admission.waiting", this, AdmissionFilter::getWaiting).register(registry);
+    Gauge.builder("factoid.admission.memory", this, AdmissionFilter::getMemory).baseUnit("bytes").register(registry);
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    return !enabled || !heavyPaths.contains(path(request));
+  }
+
+  static String path(HttpServletRequest request) {
+    return request.getRequestURI().substring(request.getContextPath().length());
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+    throws ServletException, IOException {
+    long estimate = estimate(request);
+    HttpStatus rejected;
+    try {
+      rejected = acquire(estimate);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      rejected = HttpStatus.SERVICE_UNAVAILABLE;
+    }
+    if (rejected != null) {
+      response.setHeader("Retry-After", retryAfter);
+      response.sendError(rejected.value(), "The server is busy with large conversions; retry later");
+      return;
+    }
+
+    Permit permit = new Permit(estimate);
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      if (request.isAsyncStarted()) {
+        // the response is streamed after the request thread is released
+        request.getAsyncContext().addListener(permit);
+      } else {
+        permit.release();
+      }
+    }
+  }
+
+  // the memory a conversion is expected to take, but never more than the whole budget (so it can run alone)
+  private long estimate(HttpServletRequest request) {
+    long length = request.getContentLengthLong();
+    long estimate = (length < 0 || URL_PATH.equals(path(request)))
+      ? unknownSizeEstimate : (long) (length * memoryFactor);
+    return Math.min(estimate, maxMemory);
+  }
+
+  // Waits for the request to fit both limits; null when admitted, otherwise the rejection status
+  private synchronized HttpStatus acquire(long estimate) throws InterruptedException {
+    if (fits(estimate)) {
+      admit(estimate);
+      return null;
+    }
+    if (waiting >= maxQueue) {
+      queueFull.increment();
+      return HttpStatus.TOO_MANY_REQUESTS;
+    }
+    waiting++;
+    try {
+      long deadline = System.currentTimeMillis() + maxWaitMillis;
+      while (!fits(estimate)) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          timedOut.increment();
+          return HttpStatus.SERVICE_UNAVAILABLE;
+        }
+        wait(remaining);
+      }
+      admit(estimate);
+      return null;
+    } finally {
+      waiting--;
+    }
+  }
+
+  private boolean fits(long estimate) {
+    return running < maxConcurrent && memory + estimate <= maxMemory;
+  }
+
+  private void admit(long estimate) {
+    running++;
+    memory += estimate;
+  }
+
+  private synchronized void release(long estimate) {
+    running--;
+    memory -= estimate;
+    notifyAll();
+  }
+
+  public synchronized int getRunning() {
+    return running;
+  }
+
+  public synchronized int getWaiting() {
+    return waiting;
+  }
+
+  public synchronized long getMemory() {
+    return memory;
+  }
+
+  // Released exactly once: when the request is done, or its async response completes, fails or times out
+  private class Permit implements AsyncListener {
+
+    private final long estimate;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    Permit(long estimate) {
+      this.estimate = estimate;
+    }
+
+    void release() {
+      if (released.compareAndSet(false, true)) {
+        AdmissionFilter.this.release(estimate);
+      }
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      release();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      release();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      release();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+      // a new async cycle (re-dispatch); the listener has to be registered again
+      event.getAsyncContext().addListener(this);
+    }
+  }
+}
@@ -2,6 +2,7 @@ package factoid.web;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.ViewControllerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
@@ -10,6 +11,20 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 @SpringBootApplication
 public class Application implements WebMvcConfigurer {
 
+  private final LaneExecutor laneExecutor;
+
+  public Application(LaneExecutor laneExecutor) {
+    this.laneExecutor = laneExecutor;
+  }
+
+  // the streamed responses (i.e. the conversions) run in the fast or heavy lane,
+  // and are cancelled if the request fails or times out
+  @Override
+  public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+    configurer.setTaskExecutor(laneExecutor);
+    configurer.registerCallableInterceptors(new CancellationInterceptor());
+  }
+
   @Override
   public void addViewControllers(ViewControllerRegistry registry) {
     registry.addRedirectViewController("/", "/swagger-ui.html");
@@ -0,0 +1,191 @@
+package factoid.web;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import factoid.converter.BiopaxToSbgn;
+import factoid.converter.CancellationToken;
+import factoid.converter.ConversionCancelledException;
+import factoid.converter.FactoidToBiopax;
+import factoid.model.IdGenerator;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Converts a batch of Factoid documents (a JSON array or NDJSON) on a bounded worker pool
+ * and writes one NDJSON result line per document, in the input order, as soon as it is ready:
+ * {"index":0,"status":200,"result":"..."} or {"index":1,"status":400,"error":"..."}
+ */
+@Component
+public class BatchConverter {
+
+  public enum Format {
+    BIOPAX,
+    SBGN
+  }
+
+  private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+  private final ExecutorService executor;
+  private final int maxInFlight;
+  private final IdGenerator.Mode ids;
+
+  public BatchConverter(ConverterProperties properties) {
+    ConverterProperties.Batch batch = properties.getBatch();
+    executor = Executors.newFixedThreadPool(batch.getThreads());
+    maxInFlight = batch.getMaxInFlight();
+    ids = properties.getIds();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  // Reads the documents one by one (never the whole batch at once), keeping at most maxInFlight
+  // of them queued or being converted; results are written in the input order.
+  // The token stops the batch (the documents in progress as well) with a ConversionCancelledException.
+  public void convert(InputStream in, OutputStream out, Format format, CancellationToken token) throws IOException {
+    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    // lenient mode reads a sequence of top-level values, i.e. NDJSON
+    reader.setLenient(true);
+    Deque<Future<JsonObject>> inFlight = new ArrayDeque<>();
+    JsonObject inputError = null;
+    int index = 0;
+    try {
+      Boolean isArray = null;
+      while (true) {
+        JsonElement doc;
+        try {
+          if (isArray == null) {
+            isArray = reader.peek() == JsonToken.BEGIN_ARRAY;
+            if (isArray) {
+              reader.beginArray();
+            }
+          }
+          if (isArray ? !reader.hasNext() : reader.peek() == JsonToken.END_DOCUMENT) {
+            break;
+          }
+          doc = JsonParser.parseReader(reader);
+        } catch (IOException | JsonSyntaxException | JsonIOException e) {
+          // the batch cannot be read any further; report the documents read so far and stop
+          HttpStatus status = (in instanceof BoundedInputStream && ((BoundedInputStream) in).isLimitExceeded())
+            ? HttpStatus.PAYLOAD_TOO_LARGE : HttpStatus.BAD_REQUEST;
+          inputError = errorResult(index, status, e.getMessage());
+          break;
+        }
+        token.check();
+        int docIndex = index++;
+        inFlight.add(executor.submit(() -> convertDocument(docIndex, doc, format, ids, token)));
+        if (inFlight.size() >= maxInFlight) {
+          writeLine(writer, await(inFlight.poll()));
+        }
+      }
+      while (!inFlight.isEmpty()) {
+        writeLine(writer, await(inFlight.poll()));
+      }
+      if (inputError != null) {
+        writeLine(writer, inputError);
+      }
+    } finally {
+      // e.g. the client went away; do not convert documents nobody will read, and stop the ones in progress
+      // (they check the token, not the thread interrupts)
+      if (!inFlight.isEmpty()) {
+        token.cancel();
+      }
+      for (Future<JsonObject> future : inFlight) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  // deterministic ids are seeded with the (compact) serialization of the document, not its formatting,
+  // so a document gets the same ids in any batch, and from json-to-biopax
+  static IdGenerator idGenerator(IdGenerator.Mode ids, JsonElement doc) {
+    return IdGenerator.of(ids, ids == IdGenerator.Mode.DETERMINISTIC ? doc.toString() : "");
+  }
+
+  private static JsonObject convertDocument(int index, JsonElement doc, Format format, IdGenerator.Mode ids,
+    CancellationToken token) {
+    try {
+      FactoidToBiopax converter = new FactoidToBiopax(idGenerator(ids, doc));
+      converter.setCancellationToken(token);
+      converter.addToModel(doc.getAsJsonObject());
+      String result;
+      if (format == Format.SBGN) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        BiopaxToSbgn.convert(converter.getBiopaxModel(), baos);
+        result = baos.toString(StandardCharsets.UTF_8.name());
+      } else {
+        result = converter.convertToBiopax();
+      }
+      JsonObject o = result(index, HttpStatus.OK);
+      o.addProperty("result", result);
+      return o;
+    } catch (ConversionCancelledException e) {
+      // the whole batch is cancelled, not this document
+      throw e;
+    } catch (IllegalStateException | JsonSyntaxException | JsonIOException e) {
+      return errorResult(index, HttpStatus.BAD_REQUEST, e.getMessage());
+    } catch (Throwable e) {
+      return errorResult(index, HttpStatus.INTERNAL_SERVER_ERROR, format.name().toLowerCase() + " conversion failed: " + e);
+    }
+  }
+
+  private static JsonObject await(Future<JsonObject> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a batch conversion", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof ConversionCancelledException) {
+        throw (ConversionCancelledException) e.getCause();
+      }
+      throw new IOException("Batch conversion failed", e.getCause());
+    }
+  }
+
+  private static void writeLine(Writer writer, JsonObject o) throws IOException {
+    GSON.toJson(o, writer);
+    writer.write('\n');
+    writer.flush();
+  }
+
+  private static JsonObject result(int index, HttpStatus status) {
+    JsonObject o = new JsonObject();
+    o.addProperty("index", index);
+    o.addProperty("status", status.value());
+    return o;
+  }
+
+  private static JsonObject errorResult(int index, HttpStatus status, String message) {
+    JsonObject o = result(index, status);
+    o.addProperty("error", message);
+    return o;
+  }
+}
@@ -0,0 +1,76 @@
+package factoid.web;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * An input stream that fails (with IOException) once more than the given number of bytes is read.
+ * The parsers that consume it may wrap that exception, so callers should check isLimitExceeded().
+ */
+public class BoundedInputStream extends FilterInputStream {
+
+  private final long maxBytes;
+  private long count;
+  private boolean limitExceeded;
+
+  public BoundedInputStream(InputStream in, long maxBytes) {
+    super(in);
+    this.maxBytes = maxBytes;
+  }
+
+  public boolean isLimitExceeded() {
+    return limitExceeded;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b >= 0) {
+      count(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n = super.read(b, off, len);
+    if (n > 0) {
+      count(n);
+    }
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = super.skip(n);
+    count(skipped);
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public synchronized void mark(int readlimit) {
+  }
+
+  @Override
+  public synchronized void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+
+  private void count(long n) throws IOException {
+    count += n;
+    if (count > maxBytes) {
+      limitExceeded = true;
+      throw new IOException("Input exceeds the limit of " + maxBytes + " bytes");
+    }
+  }
+}
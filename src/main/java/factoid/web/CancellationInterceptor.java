@@ -0,0 +1,39 @@
+package factoid.web;
+
+import factoid.converter.CancellationToken;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+
+import java.util.concurrent.Callable;
+
+/*
+ * Cancels the conversion of an async (streamed) request when the request fails, e.g. the client
+ * went away, or times out, so the converters stop instead of finishing work nobody will read.
+ * The controller keeps the request's CancellationToken in a request attribute.
+ * The container finds out that the client went away only when the response is written to; until
+ * a JSON conversion writes, the DisconnectProbe (if enabled) does that.
+ */
+public class CancellationInterceptor implements CallableProcessingInterceptor {
+
+  static final String TOKEN_ATTRIBUTE = CancellationInterceptor.class.getName() + ".token";
+
+  @Override
+  public <T> Object handleTimeout(NativeWebRequest request, Callable<T> task) {
+    cancel(request);
+    return RESULT_NONE;
+  }
+
+  @Override
+  public <T> Object handleError(NativeWebRequest request, Callable<T> task, Throwable t) {
+    cancel(request);
+    return RESULT_NONE;
+  }
+
+  private static void cancel(NativeWebRequest request) {
+    Object token = request.getAttribute(TOKEN_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    if (token instanceof CancellationToken) {
+      ((CancellationToken) token).cancel();
+    }
+  }
+}
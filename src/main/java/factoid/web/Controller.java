@@ -1,155 +1,585 @@
 package factoid.web;
 
 import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
 
 import factoid.converter.BiopaxToFactoid;
+import factoid.converter.BiopaxToSbgn;
+import factoid.converter.CancellationToken;
+import factoid.converter.ConversionBudget;
+import factoid.converter.ConversionCancelledException;
 import factoid.converter.FactoidToBiopax;
+import factoid.converter.PmidIndex;
+import factoid.converter.SelectiveBiopaxReader;
+import factoid.converter.ShardedBiopaxToFactoid;
+import factoid.model.ConversionMetrics;
+import factoid.model.IdGenerator;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import org.biopax.paxtools.io.SimpleIOHandler;
-import org.biopax.paxtools.io.sbgn.L3ToSBGNPDConverter;
 import org.biopax.paxtools.model.Model;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.*;
-import java.net.URL;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
-import java.util.zip.GZIPInputStream;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 
 @RestController
 @RequestMapping(value = "/v2", method = {RequestMethod.POST})
 public class Controller {
 
+  private static final String BIOPAX_MEDIA_TYPE = "application/vnd.biopax.rdf+xml";
+  private static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+
+  private static final String TIME_BUDGET_DESCRIPTION = "Max time (ms) to spend; the PMID documents completed by then are returned";
+  private static final String MAX_DOCUMENTS_DESCRIPTION = "Max number of PMID documents to return";
+  private static final String AFTER_DESCRIPTION = "The cursor of a partial result, to continue with the PMIDs after it";
+
+  private static final Timer OWL_PARSE_TIMER = ConversionMetrics.phase(ConversionMetrics.OWL_PARSE);
+  private static final DistributionSummary BIOPAX_ELEMENTS = ConversionMetrics.modelElements(ConversionMetrics.BIOPAX);
+
+  private final ConverterProperties properties;
+  private final BatchConverter batchConverter;
+  private final ResultCache cache;
+  private final SingleFlight singleFlight;
+  private final UrlFetcher urlFetcher;
+  private final ModelCache modelCache;
+  // builds the biopax-to-json documents in parallel (null - sequentially)
+  private final ForkJoinPool biopaxToJsonPool;
+  // runs the disconnect probes (null - none)
+  private final ScheduledExecutorService probeScheduler;
+
+  public Controller(ConverterProperties properties, BatchConverter batchConverter, ResultCache cache,
+    SingleFlight singleFlight, UrlFetcher urlFetcher, ModelCache modelCache) {
+    this.properties = properties;
+    this.batchConverter = batchConverter;
+    this.cache = cache;
+    this.singleFlight = singleFlight;
+    this.urlFetcher = urlFetcher;
+    this.modelCache = modelCache;
+    int parallelism = properties.getBiopaxToJson().getParallelism();
+    this.biopaxToJsonPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    Duration probeInterval = properties.getDisconnectProbeInterval();
+    this.probeScheduler = probeInterval == null || probeInterval.isZero() ? null
+      : Executors.newSingleThreadScheduledExecutor(r -> {
+          Thread thread = new Thread(r, "disconnect-probe");
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (biopaxToJsonPool != null) {
+      biopaxToJsonPool.shutdownNow();
+    }
+    if (probeScheduler != null) {
+      probeScheduler.shutdownNow();
+    }
+  }
+
   @Operation(summary = "json-to-biopax", description = "Converts a Factoid model to BioPAX.")
   @RequestMapping(path = "/json-to-biopax",
     consumes = MediaType.APPLICATION_JSON_VALUE,
-    produces = "application/vnd.biopax.rdf+xml"
+    produces = BIOPAX_MEDIA_TYPE
   )
-  public String jsonToBiopax(
-    @Parameter(description = "Factoid document content (JSON string)") @RequestBody String body) {
-    // Add templates to converter by the reader
-    FactoidToBiopax converter = new FactoidToBiopax();
-    try {
-      converter.addToModel(body);
-    } catch (IllegalStateException | JsonSyntaxException | JsonIOException e) {
-      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
-    } catch (Throwable e) {
-      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "json-to-biopax failed", e);
-    }
-
-    // Convert the model to biopax string
-    return converter.convertToBiopax();
+  public ResponseEntity<StreamingResponseBody> jsonToBiopax(
+    @Parameter(description = "Factoid document content (JSON string)") @RequestBody String body,
+    HttpServletRequest request) {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    ConversionMetrics.requestSize("json-to-biopax").record(bytes.length);
+    CancellationToken token = cancellationToken(request);
+    return cached("json-to-biopax", bytes, BIOPAX_MEDIA_TYPE, () -> {
+      FactoidToBiopax converter = factoidToBiopax(body, "json-to-biopax", token);
+      // Write the model as biopax straight to the response
+      return converter::convertToBiopax;
+    });
   }
 
   @Operation(summary = "json-to-sbgn", description = "Converts a Factoid model to SBGN-ML (via BioPAX).")
   @RequestMapping(path = "/json-to-sbgn",
     consumes = MediaType.APPLICATION_JSON_VALUE,
-    produces = "application/xml"
+    produces = MediaType.APPLICATION_XML_VALUE
   )
-  public String jsonToSbgn(
-    @Parameter(description = "Factoid document (JSON string)") @RequestBody String body) {
-    try {
-      InputStream is = new ByteArrayInputStream(jsonToBiopax(body).getBytes(StandardCharsets.UTF_8));
-      Model model = new SimpleIOHandler().convertFromOWL(is);
-      is.close();
-      L3ToSBGNPDConverter converter = new L3ToSBGNPDConverter();
-      converter.setDoLayout(false); //TODO: apply the default sbgn layout?
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      converter.writeSBGN(model, baos);
-      return baos.toString(StandardCharsets.UTF_8.name());
-    } catch (Throwable e) {
-      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "json-to-sbgn failed", e);
-    }
+  public ResponseEntity<StreamingResponseBody> jsonToSbgn(
+    @Parameter(description = "Factoid document (JSON string)") @RequestBody String body,
+    HttpServletRequest request) {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    ConversionMetrics.requestSize("json-to-sbgn").record(bytes.length);
+    CancellationToken token = cancellationToken(request);
+    return cached("json-to-sbgn", bytes, MediaType.APPLICATION_XML_VALUE, () -> {
+      // the SBGN converter gets the in-memory BioPAX model (no RDF/XML write and re-parse)
+      Model model = factoidToBiopax(body, "json-to-sbgn", token).getBiopaxModel();
+      return out -> BiopaxToSbgn.convert(model, out);
+    });
   }
 
   @Operation(summary = "biopax-to-sbgn", description = "Converts a factoid BioPAX model to SBGN-ML (SBGN PD).")
   @RequestMapping(path = "/biopax-to-sbgn",
-    consumes = "application/vnd.biopax.rdf+xml",
-    produces = "application/xml"
+    consumes = BIOPAX_MEDIA_TYPE,
+    produces = MediaType.APPLICATION_XML_VALUE
   )
-  public String biopaxToSbgn(
-    @Parameter(description = "A factoid (small) BioPAX RDF/XML model") @RequestBody String body) {
-    try {
-      InputStream is = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
-      Model model = new SimpleIOHandler().convertFromOWL(is);
-      is.close();
-      L3ToSBGNPDConverter converter = new L3ToSBGNPDConverter();
-      converter.setDoLayout(false);
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      converter.writeSBGN(model, baos);
-      return baos.toString(StandardCharsets.UTF_8.name());
-    } catch (Throwable e) {
-      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "biopax-to-sbgn failed", e);
-    }
+  @io.swagger.v3.oas.annotations.parameters.RequestBody(description = "A factoid (small) BioPAX RDF/XML model")
+  public ResponseEntity<StreamingResponseBody> biopaxToSbgn(HttpServletRequest request) throws IOException {
+    return biopaxConversion(request, "biopax-to-sbgn", MediaType.APPLICATION_XML_VALUE, null,
+      model -> out -> BiopaxToSbgn.convert(model, out));
   }
 
-  @Operation(summary = "biopax-to-json", description = "Converts a BioPAX model to Factoid JSON.")
+  @Operation(summary = "biopax-to-json", description = "Converts a BioPAX model to Factoid JSON. "
+    + "With timeBudgetMs, maxDocuments or after, the result is (possibly) partial: {partial, cursor, documents}.")
   @RequestMapping(path = "/biopax-to-json",
-    consumes = "application/vnd.biopax.rdf+xml",
-    produces = "application/json"
+    consumes = BIOPAX_MEDIA_TYPE,
+    produces = MediaType.APPLICATION_JSON_VALUE
   )
-  public String biopaxToFactoid(
-		  @Parameter(description = "A BioPAX RDF/XML model") @RequestBody String body) {
-	  BiopaxToFactoid converter = new BiopaxToFactoid();
-	  try {
-		  InputStream is = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
-      Model model = new SimpleIOHandler().convertFromOWL(is);
-		  return converter.convert(model).toString();
-	  } catch (IllegalStateException | JsonSyntaxException | JsonIOException e) {
-		  throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
-	  } catch (Throwable e) {
-		  throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "biopax-to-json failed", e);
+  @io.swagger.v3.oas.annotations.parameters.RequestBody(description = "A BioPAX RDF/XML model")
+  public ResponseEntity<StreamingResponseBody> biopaxToFactoid(HttpServletRequest request,
+    @Parameter(description = TIME_BUDGET_DESCRIPTION) @RequestParam(required = false) Long timeBudgetMs,
+    @Parameter(description = MAX_DOCUMENTS_DESCRIPTION) @RequestParam(required = false) Integer maxDocuments,
+    @Parameter(description = AFTER_DESCRIPTION) @RequestParam(required = false) String after) throws IOException {
+	  CancellationToken token = cancellationToken(request);
+	  ConversionBudget budget = conversionBudget(timeBudgetMs, maxDocuments, after);
+	  if (budget == null) {
+		  return biopaxConversion(request, "biopax-to-json", MediaType.APPLICATION_JSON_VALUE, token,
+			  model -> out -> writeJson(model, out, token, null));
 	  }
+	  // partial results depend on the time budget, so they are neither cached nor shared
+	  BoundedInputStream is = requestBody(request);
+	  return stream("biopax-to-json", MediaType.APPLICATION_JSON_VALUE, token,
+		  out -> writeJson(biopaxFromRequest(is, "biopax-to-json"), out, token, budget));
   }
   
-  @Operation(summary = "biopax-url-to-json", description = "Converts a BioPAX model to Factoid JSON.")
+  @Operation(summary = "biopax-to-json (NDJSON)", description = "Converts a BioPAX model to Factoid JSON, "
+    + "streamed as one NDJSON line per PMID document as soon as it is done: {pmid, elements}. "
+    + "A partial result (see timeBudgetMs, maxDocuments, after) ends with a {partial, cursor} line.")
+  @RequestMapping(path = "/biopax-to-json",
+    consumes = BIOPAX_MEDIA_TYPE,
+    produces = NDJSON_MEDIA_TYPE
+  )
+  @io.swagger.v3.oas.annotations.parameters.RequestBody(description = "A BioPAX RDF/XML model")
+  public ResponseEntity<StreamingResponseBody> biopaxToFactoidNdjson(HttpServletRequest request,
+    @Parameter(description = TIME_BUDGET_DESCRIPTION) @RequestParam(required = false) Long timeBudgetMs,
+    @Parameter(description = MAX_DOCUMENTS_DESCRIPTION) @RequestParam(required = false) Integer maxDocuments,
+    @Parameter(description = AFTER_DESCRIPTION) @RequestParam(required = false) String after) throws IOException {
+    CancellationToken token = cancellationToken(request);
+    ConversionBudget budget = conversionBudget(timeBudgetMs, maxDocuments, after);
+    // progressive output, never cached
+    if (budget == null && isSharded(request.getContentLengthLong())) {
+      BoundedInputStream is = requestBody(request, properties.getBiopaxToJson().getShardedMaxRequestSize());
+      return stream("biopax-to-json", NDJSON_MEDIA_TYPE, token,
+        out -> writeSharded("biopax-to-json", is, out, token, true));
+    }
+    BoundedInputStream is = requestBody(request);
+    return stream("biopax-to-json", NDJSON_MEDIA_TYPE, token,
+      out -> writeNdjson(biopaxFromRequest(is, "biopax-to-json"), out, token, budget));
+  }
+
+  @Operation(summary = "biopax-url-to-json", description = "Converts a BioPAX model to Factoid JSON. "
+    + "With timeBudgetMs, maxDocuments or after, the result is (possibly) partial: {partial, cursor, documents}.")
   @RequestMapping(path = "/biopax-url-to-json",
-    consumes = "text/plain",
-    produces = "application/json"
+    consumes = MediaType.TEXT_PLAIN_VALUE,
+    produces = MediaType.APPLICATION_JSON_VALUE
   )
-  public String biopaxUrlToFactoid(
-		  @Parameter(description = "URL of a BioPAX RDF/XML file") @RequestBody String url) {
-	  BiopaxToFactoid converter = new BiopaxToFactoid();
-	  try {
-		  String body = getContentFromUrl(url);
-		  InputStream is = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
-      Model model = new SimpleIOHandler().convertFromOWL(is);
-		  return converter.convert(model).toString();
-	  } catch (IllegalStateException | JsonSyntaxException | JsonIOException e) {
-		  throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
-	  } catch (Throwable e) {
-		  throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "biopax-url-to-json failed", e);
-	  }
+  public ResponseEntity<StreamingResponseBody> biopaxUrlToFactoid(
+		  @Parameter(description = "URL of a BioPAX RDF/XML file (may be gzipped)") @RequestBody String url,
+		  HttpServletRequest request,
+		  @Parameter(description = TIME_BUDGET_DESCRIPTION) @RequestParam(required = false) Long timeBudgetMs,
+		  @Parameter(description = MAX_DOCUMENTS_DESCRIPTION) @RequestParam(required = false) Integer maxDocuments,
+		  @Parameter(description = AFTER_DESCRIPTION) @RequestParam(required = false) String after) {
+	  String source = url.trim();
+	  CancellationToken token = cancellationToken(request);
+	  ConversionBudget budget = conversionBudget(timeBudgetMs, maxDocuments, after);
+	  // the download and parsing run in the (heavy lane) response task, not on the request thread
+	  return stream("biopax-url-to-json", MediaType.APPLICATION_JSON_VALUE, token,
+		  out -> writeUrlJson(source, out, token, budget));
   }
-  
-  private String getContentFromUrl(String url) {
-		InputStream is = null;
-		try {
+
+  @Operation(summary = "json-to-biopax-batch", description = "Converts many Factoid documents (JSON array or NDJSON) to BioPAX. "
+    + "Streams back one NDJSON line per document, in the input order: {index, status, result|error}.")
+  @RequestMapping(path = "/json-to-biopax-batch",
+    consumes = {MediaType.APPLICATION_JSON_VALUE, NDJSON_MEDIA_TYPE},
+    produces = NDJSON_MEDIA_TYPE
+  )
+  @io.swagger.v3.oas.annotations.parameters.RequestBody(description = "Factoid documents (JSON array or NDJSON)")
+  public ResponseEntity<StreamingResponseBody> jsonToBiopaxBatch(HttpServletRequest request) throws IOException {
+    CancellationToken token = cancellationToken(request);
+    BoundedInputStream is = requestBody(request);
+    return stream("json-to-biopax-batch", NDJSON_MEDIA_TYPE, token, out -> {
+      batchConverter.convert(is, out, BatchConverter.Format.BIOPAX, token);
+      ConversionMetrics.requestSize("json-to-biopax-batch").record(is.getCount());
+    });
+  }
+
+  @Operation(summary = "json-to-sbgn-batch", description = "Converts many Factoid documents (JSON array or NDJSON) to SBGN-ML. "
+    + "Streams back one NDJSON line per document, in the input order: {index, status, result|error}.")
+  @RequestMapping(path = "/json-to-sbgn-batch",
+    consumes = {MediaType.APPLICATION_JSON_VALUE, NDJSON_MEDIA_TYPE},
+    produces = NDJSON_MEDIA_TYPE
+  )
+  @io.swagger.v3.oas.annotations.parameters.RequestBody(description = "Factoid documents (JSON array or NDJSON)")
+  public ResponseEntity<StreamingResponseBody> jsonToSbgnBatch(HttpServletRequest request) throws IOException {
+    CancellationToken token = cancellationToken(request);
+    BoundedInputStream is = requestBody(request);
+    return stream("json-to-sbgn-batch", NDJSON_MEDIA_TYPE, token, out -> {
+      batchConverter.convert(is, out, BatchConverter.Format.SBGN, token);
+      ConversionMetrics.requestSize("json-to-sbgn-batch").record(is.getCount());
+    });
+  }
+
+  // Converts a BioPAX request body; small bodies are buffered and go through the result cache
+  // (and request coalescing), others are parsed as they are being received (probed with the token, if any).
+  private ResponseEntity<StreamingResponseBody> biopaxConversion(HttpServletRequest request, String endpoint,
+    String mediaType, CancellationToken token, Function<Model, StreamingResponseBody> writer) throws IOException {
+    byte[] body = cacheableBody(request);
+    if (body == null) {
+      BoundedInputStream is = requestBody(request);
+      return stream(endpoint, mediaType, token, out -> writer.apply(biopaxFromRequest(is, endpoint)).writeTo(out));
+    }
+    ConversionMetrics.requestSize(endpoint).record(body.length);
+    return cached(endpoint, body, mediaType, () -> {
+      try {
+        return writer.apply(parseBiopax(new ByteArrayInputStream(body), endpoint));
+      } catch (Throwable e) {
+        throw conversionError(endpoint, e);
+      }
+    });
+  }
+
+  // Responds with the cached result of the same conversion if there is one, or shares the result
+  // of an identical conversion that is already in progress; otherwise runs the conversion (which does
+  // the parsing/validation and returns the response writer) and caches/shares what gets written.
+  // Only the cache lookup happens on the request thread; the conversion runs in the response task.
+  // The in-flight conversion is joined in the task as well: a task that never runs (rejected by its lane,
+  // or the request timed out or was abandoned before it started) must not leave a leader nobody completes.
+  private ResponseEntity<StreamingResponseBody> cached(String endpoint, byte[] body, String mediaType,
+    Supplier<StreamingResponseBody> conversion) {
+    String key = cache.key(endpoint, body);
+    byte[] result = cache.get(key);
+    if (result != null) {
+      return stream(endpoint, mediaType, out -> out.write(result));
+    }
+    return stream(endpoint, mediaType, out -> {
+      SingleFlight.Call call = singleFlight.join(key);
+      if (!call.isLeader()) {
+        byte[] shared = call.await();
+        if (shared != null) {
+          out.write(shared);
+        } else {
+          conversion.get().writeTo(out);
+        }
+        return;
+      }
+      StreamingResponseBody writer;
+      try {
+        writer = conversion.get();
+      } catch (ConversionCancelledException e) {
+        // only this request is cancelled; the others convert by themselves
+        call.complete(null);
+        throw e;
+      } catch (RuntimeException | Error e) {
+        call.fail(e);
+        throw e;
+      }
+      // completes the call whatever happens while writing
+      cache.writeThrough(key, writer, call::complete).writeTo(out);
+    });
+  }
+
+  // The whole request body if it is small enough to be cached/shared, or null
+  private byte[] cacheableBody(HttpServletRequest request) throws IOException {
+    long length = request.getContentLengthLong();
+    if (length < 0 || length > properties.getCache().getMaxInputSize().toBytes()) {
+      return null;
+    }
+    return StreamUtils.copyToByteArray(requestBody(request));
+  }
+
+  // A new token for the conversion of the request: cancelled when the time budget is over,
+  // or (by CancellationInterceptor) when the request fails or times out
+  private CancellationToken cancellationToken(HttpServletRequest request) {
+    CancellationToken token = new CancellationToken(properties.getTimeBudget());
+    request.setAttribute(CancellationInterceptor.TOKEN_ATTRIBUTE, token);
+    return token;
+  }
+
+  // The limits of a partial biopax-to-json result, or null if none are given (the whole result)
+  private static ConversionBudget conversionBudget(Long timeBudgetMs, Integer maxDocuments, String after) {
+    if (timeBudgetMs == null && maxDocuments == null && after == null) {
+      return null;
+    }
+    if ((timeBudgetMs != null && timeBudgetMs <= 0) || (maxDocuments != null && maxDocuments <= 0)) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "timeBudgetMs and maxDocuments must be positive");
+    }
+    return new ConversionBudget(after, maxDocuments, timeBudgetMs == null ? null : Duration.ofMillis(timeBudgetMs));
+  }
+
+  // Adds the Factoid document to a new converter (a bad document is a 400 error)
+  // (with ids seeded like those of the same document in a batch)
+  private FactoidToBiopax factoidToBiopax(String body, String endpoint, CancellationToken token) {
+    try {
+      JsonObject doc = FactoidToBiopax.parse(body);
+      FactoidToBiopax converter = new FactoidToBiopax(BatchConverter.idGenerator(properties.getIds(), doc));
+      converter.setCancellationToken(token);
+      converter.addToModel(doc);
+      return converter;
+    } catch (Throwable e) {
+      throw conversionError(endpoint, e);
+    }
+  }
+
+  // Bad input is a 400 error, any other failure a 500 (a cancellation is passed on as it is)
+  private static RuntimeException conversionError(String endpoint, Throwable e) {
+    if (e instanceof ResponseStatusException || e instanceof ConversionCancelledException) {
+      return (RuntimeException) e;
+    }
+    if (e instanceof IllegalStateException || e instanceof JsonSyntaxException || e instanceof JsonIOException) {
+      return new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+    }
+    return new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, endpoint + " failed", e);
+  }
+
+  // The lane of the conversion (see LaneExecutor) is full
+  @ExceptionHandler(RejectedExecutionException.class)
+  public void rejected(RejectedExecutionException e, HttpServletResponse response) throws IOException {
+    response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(properties.getAdmission().getRetryAfter().getSeconds()));
+    response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Too many conversions in progress; retry later");
+  }
+
+  // The result is written directly to the response output stream as it is being serialized,
+  // so neither the time to first byte nor the memory use depend on the output size.
+  private ResponseEntity<StreamingResponseBody> stream(String endpoint, String mediaType, StreamingResponseBody body) {
+    return stream(endpoint, mediaType, null, body);
+  }
+
+  // the same, with a disconnect probe (JSON only) that cancels the token (if any) until the conversion writes
+  private ResponseEntity<StreamingResponseBody> stream(String endpoint, String mediaType, CancellationToken token,
+    StreamingResponseBody body) {
+    boolean probed = probeScheduler != null && token != null
+      && (mediaType.equals(MediaType.APPLICATION_JSON_VALUE) || mediaType.equals(NDJSON_MEDIA_TYPE));
+    return ResponseEntity.ok()
+      .contentType(MediaType.parseMediaType(mediaType))
+      .body(out -> {
+        DisconnectProbe probe = probed
+          ? new DisconnectProbe(out, token, probeScheduler, properties.getDisconnectProbeInterval()) : null;
+        CountingOutputStream counter = new CountingOutputStream(probed ? probe : out);
+        try {
+          body.writeTo(counter);
+        } catch (ConversionCancelledException e) {
+          // over the time budget (if the client went away, nobody gets the response anyway)
+          throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        } finally {
+          if (probed) {
+            probe.stop();
+          }
+        }
+        ConversionMetrics.responseSize(endpoint).record(counter.count);
+      });
+  }
+
+  // the ids of the JSON elements are derived from the PMIDs and URIs (no seed needed)
+  private IdGenerator jsonIdGenerator() {
+    return IdGenerator.of(properties.getIds(), "");
+  }
+
+  // the whole result, or a partial one within the budget (if not null)
+  private void writeJson(Model model, OutputStream out, CancellationToken token, ConversionBudget budget)
+    throws IOException {
+    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    BiopaxToFactoid converter = new BiopaxToFactoid();
+    converter.setCancellationToken(token);
+    converter.setPool(biopaxToJsonPool);
+    converter.setIdGenerator(jsonIdGenerator());
+    // reused if the model is a cached one (biopax-url-to-json)
+    PmidIndex index = modelCache.pmidIndex(model, token);
+    if (budget == null) {
+      converter.convert(index, writer);
+    } else {
+      converter.convert(index, budget, writer);
+    }
+    writer.flush();
+  }
+
+  private void writeNdjson(Model model, OutputStream out, CancellationToken token, ConversionBudget budget)
+    throws IOException {
+    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    BiopaxToFactoid converter = new BiopaxToFactoid();
+    converter.setCancellationToken(token);
+    converter.setPool(biopaxToJsonPool);
+    converter.setIdGenerator(jsonIdGenerator());
+    converter.convertToNdjson(modelCache.pmidIndex(model, token),
+      budget == null ? ConversionBudget.UNLIMITED : budget, writer);
+  }
+
+  // Whether a whole model of the size (-1 if unknown) is converted in shards
+  private boolean isSharded(long size) {
+    DataSize shardedMinSize = properties.getBiopaxToJson().getShardedMinSize();
+    return shardedMinSize != null && size > shardedMinSize.toBytes();
+  }
+
+  // A model too large to be parsed at once is converted in shards, spilled to temporary files,
+  // within the sharded time budget rather than the request's one (but still cancelled with the request),
+  // always with deterministic ids (see ShardedBiopaxToFactoid)
+  private void writeSharded(String endpoint, InputStream is, OutputStream out, CancellationToken token, boolean ndjson)
+    throws IOException {
+    ConverterProperties.BiopaxToJson settings = properties.getBiopaxToJson();
+    String directory = settings.getShardDirectory() != null ? settings.getShardDirectory() : System.getProperty("java.io.tmpdir");
+    ShardedBiopaxToFactoid converter = new ShardedBiopaxToFactoid(settings.getShardSize(), settings.getShardPartitions(),
+      settings.getShardPartitionMaxSize().toBytes(), Paths.get(directory));
+    converter.setCancellationToken(token.withBudget(settings.getShardedTimeBudget()));
+    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    try {
+      if (ndjson) {
+        converter.convertToNdjson(is, writer);
+      } else {
+        converter.convertToJson(is, writer);
+      }
+      if (is instanceof BoundedInputStream) {
+        ConversionMetrics.requestSize(endpoint).record(((BoundedInputStream) is).getCount());
+      }
+    } catch (Throwable e) {
+      if (is instanceof BoundedInputStream && ((BoundedInputStream) is).isLimitExceeded()) {
+        throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+          "Request body exceeds " + settings.getShardedMaxRequestSize());
+      }
+      if (e instanceof IOException) {
+        // the client went away, or the temporary files could not be written
+        throw (IOException) e;
+      }
+      throw conversionError(endpoint, e);
+    }
+  }
+
+  // A single request; the (decompressed) content is parsed as it is being downloaded,
+  // unless the same content (by its ETag/Last-Modified, from a HEAD request) has been parsed recently,
+  // or converted in shards if it is too large (and the whole result is asked for).
+  private void writeUrlJson(String url, OutputStream out, CancellationToken token, ConversionBudget budget)
+    throws IOException {
+    Model model = cachedModel(url);
+    if (model == null) {
+      try (UrlFetcher.Download download = download(url)) {
+        if (budget == null && isSharded(download.getSize())) {
+          writeSharded("biopax-url-to-json", download.getInputStream(), out, token, false);
+          return;
+        }
+        model = biopaxFromDownload(download);
+        modelCache.put(url, download.getValidator(), model);
+      }
+    }
+    writeJson(model, out, token, budget);
+  }
+
+  // the cached model of the URL, if its content has not changed since, or null
+  private Model cachedModel(String url) {
+    String validator = null;
+    if (modelCache.contains(url)) {
       try {
-			  is = new GZIPInputStream(new URL(url).openStream());
+        validator = urlFetcher.validator(url);
       } catch (IOException e) {
-        //e.printStackTrace();
-        is = new URL(url).openStream();
+        // e.g. HEAD is not allowed; the download will do
       }
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-    Reader reader = new InputStreamReader(is);
-		Writer writer = new StringWriter();
-		char[] buffer = new char[10240];
-	    try {
-			for (int length; (length = reader.read(buffer)) > 0;) {
-			    writer.write(buffer, 0, length);
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	  String body = writer.toString();
-	  return body;
-	}
+    }
+    return modelCache.get(url, validator);
+  }
+
+  private UrlFetcher.Download download(String url) {
+    try {
+      return urlFetcher.open(url);
+    } catch (MalformedURLException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+    } catch (SocketTimeoutException e) {
+      throw new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Timed out fetching " + url, e);
+    } catch (IOException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Failed to fetch " + url + ": " + e.getMessage(), e);
+    }
+  }
+
+  private Model biopaxFromDownload(UrlFetcher.Download download) {
+    try {
+      return parseBiopax(download.getInputStream(), "biopax-url-to-json");
+    } catch (Throwable e) {
+      throw conversionError("biopax-url-to-json", e);
+    }
+  }
+
+  // Parses the BioPAX request body straight from the servlet input stream (no String/byte[] copies),
+  // rejecting it with 413 as soon as it turns out to be larger than the configured limit.
+  private Model biopaxFromRequest(BoundedInputStream is, String endpoint) {
+    try {
+      Model model = parseBiopax(is, endpoint);
+      ConversionMetrics.requestSize(endpoint).record(is.getCount());
+      return model;
+    } catch (Throwable e) {
+      if (is.isLimitExceeded()) {
+        throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+          "Request body exceeds " + properties.getMaxRequestSize());
+      }
+      throw conversionError(endpoint, e);
+    }
+  }
+
+  // The request body as a stream that fails once it exceeds the configured max size
+  private BoundedInputStream requestBody(HttpServletRequest request) throws IOException {
+    return requestBody(request, properties.getMaxRequestSize());
+  }
+
+  private static BoundedInputStream requestBody(HttpServletRequest request, DataSize max) throws IOException {
+    if (request.getContentLengthLong() > max.toBytes()) {
+      throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Request body exceeds " + max);
+    }
+    return new BoundedInputStream(request.getInputStream(), max.toBytes());
+  }
+
+  // the JSON endpoints may use the selective reader, as they only need a part of the model
+  private Model parseBiopax(InputStream is, String endpoint) {
+    boolean selective = endpoint.endsWith("-json") && properties.getBiopaxToJson().isSelectiveReader();
+    Model model = OWL_PARSE_TIMER.record(() -> selective
+      ? new SelectiveBiopaxReader().read(is) : new SimpleIOHandler().convertFromOWL(is));
+    BIOPAX_ELEMENTS.record(model.getObjects().size());
+    return model;
+  }
+
+  // Passes everything through, counting the bytes (for the response size metrics)
+  private static class CountingOutputStream extends FilterOutputStream {
+
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
 }
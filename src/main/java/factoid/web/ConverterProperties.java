@@ -0,0 +1,594 @@
+package factoid.web;
+
+import factoid.model.IdGenerator;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Converter web service settings (application.properties entries with the 'factoid' prefix).
+ */
+@Configuration
+@ConfigurationProperties(prefix = "factoid")
+public class ConverterProperties {
+
+  // Max size of a BioPAX request body; larger uploads are rejected with 413 while being parsed
+  private DataSize maxRequestSize = DataSize.ofMegabytes(512);
+
+  // Max time a conversion may take; then it is cancelled (503). Not limited if empty (the default).
+  private Duration timeBudget;
+
+  // How often a JSON response that has nothing written yet is probed for a client that went away
+  // (see DisconnectProbe); never if empty (the default), as the first probe commits the response status
+  private Duration disconnectProbeInterval;
+
+  // Ids of the created elements: random (UUID.randomUUID), fast (ThreadLocalRandom) or deterministic
+  // (derived from the input, so that the same input always gives the same output); a conversion in shards
+  // (see BiopaxToJson.shardedMinSize) always has deterministic ids
+  private IdGenerator.Mode ids = IdGenerator.Mode.RANDOM;
+
+  // Endpoints (path after the context path) of the heavy conversions, subject to the admission control
+  // and run in the heavy lane
+  private List<String> heavyPaths = new ArrayList<>(Arrays.asList("/v2/biopax-to-json", "/v2/biopax-to-sbgn",
+    "/v2/biopax-url-to-json", "/v2/json-to-biopax-batch", "/v2/json-to-sbgn-batch"));
+
+  private Batch batch = new Batch();
+
+  private Cache cache = new Cache();
+
+  private Coalescing coalescing = new Coalescing();
+
+  private Download download = new Download();
+
+  private ModelCache modelCache = new ModelCache();
+
+  private Admission admission = new Admission();
+
+  private Lanes lanes = new Lanes();
+
+  private BiopaxToJson biopaxToJson = new BiopaxToJson();
+
+  public DataSize getMaxRequestSize() {
+    return maxRequestSize;
+  }
+
+  public void setMaxRequestSize(DataSize maxRequestSize) {
+    this.maxRequestSize = maxRequestSize;
+  }
+
+  public Duration getTimeBudget() {
+    return timeBudget;
+  }
+
+  public void setTimeBudget(Duration timeBudget) {
+    this.timeBudget = timeBudget;
+  }
+
+  public Duration getDisconnectProbeInterval() {
+    return disconnectProbeInterval;
+  }
+
+  public void setDisconnectProbeInterval(Duration disconnectProbeInterval) {
+    this.disconnectProbeInterval = disconnectProbeInterval;
+  }
+
+  public IdGenerator.Mode getIds() {
+    return ids;
+  }
+
+  public void setIds(IdGenerator.Mode ids) {
+    this.ids = ids;
+  }
+
+  public List<String> getHeavyPaths() {
+    return heavyPaths;
+  }
+
+  public void setHeavyPaths(List<String> heavyPaths) {
+    this.heavyPaths = heavyPaths;
+  }
+
+  public Batch getBatch() {
+    return batch;
+  }
+
+  public void setBatch(Batch batch) {
+    this.batch = batch;
+  }
+
+  public Cache getCache() {
+    return cache;
+  }
+
+  public void setCache(Cache cache) {
+    this.cache = cache;
+  }
+
+  public Coalescing getCoalescing() {
+    return coalescing;
+  }
+
+  public void setCoalescing(Coalescing coalescing) {
+    this.coalescing = coalescing;
+  }
+
+  public Download getDownload() {
+    return download;
+  }
+
+  public void setDownload(Download download) {
+    this.download = download;
+  }
+
+  public ModelCache getModelCache() {
+    return modelCache;
+  }
+
+  public void setModelCache(ModelCache modelCache) {
+    this.modelCache = modelCache;
+  }
+
+  public Admission getAdmission() {
+    return admission;
+  }
+
+  public void setAdmission(Admission admission) {
+    this.admission = admission;
+  }
+
+  public Lanes getLanes() {
+    return lanes;
+  }
+
+  public void setLanes(Lanes lanes) {
+    this.lanes = lanes;
+  }
+
+  public BiopaxToJson getBiopaxToJson() {
+    return biopaxToJson;
+  }
+
+  public void setBiopaxToJson(BiopaxToJson biopaxToJson) {
+    this.biopaxToJson = biopaxToJson;
+  }
+
+  public static class Batch {
+
+    // Worker threads shared by all the batch conversion requests
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    // Max documents of a single batch request that are queued or being converted at a time
+    private int maxInFlight = 64;
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public void setThreads(int threads) {
+      this.threads = threads;
+    }
+
+    public int getMaxInFlight() {
+      return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+      this.maxInFlight = maxInFlight;
+    }
+  }
+
+  public static class Cache {
+
+    private boolean enabled = true;
+
+    // Bounds of the in-memory (LRU) result cache
+    private int maxEntries = 10000;
+    private DataSize maxSize = DataSize.ofMegabytes(256);
+
+    // Larger results are not cached
+    private DataSize maxEntrySize = DataSize.ofMegabytes(16);
+
+    // BioPAX request bodies up to this size are buffered to compute the cache key;
+    // larger (or of unknown length) ones are streamed into the parser without caching
+    private DataSize maxInputSize = DataSize.ofMegabytes(16);
+
+    // Optional on-disk tier (not used if empty) and its size bound
+    private String directory;
+    private DataSize maxDiskSize = DataSize.ofGigabytes(2);
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public int getMaxEntries() {
+      return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+      this.maxEntries = maxEntries;
+    }
+
+    public DataSize getMaxSize() {
+      return maxSize;
+    }
+
+    public void setMaxSize(DataSize maxSize) {
+      this.maxSize = maxSize;
+    }
+
+    public DataSize getMaxEntrySize() {
+      return maxEntrySize;
+    }
+
+    public void setMaxEntrySize(DataSize maxEntrySize) {
+      this.maxEntrySize = maxEntrySize;
+    }
+
+    public DataSize getMaxInputSize() {
+      return maxInputSize;
+    }
+
+    public void setMaxInputSize(DataSize maxInputSize) {
+      this.maxInputSize = maxInputSize;
+    }
+
+    public String getDirectory() {
+      return directory;
+    }
+
+    public void setDirectory(String directory) {
+      this.directory = directory;
+    }
+
+    public DataSize getMaxDiskSize() {
+      return maxDiskSize;
+    }
+
+    public void setMaxDiskSize(DataSize maxDiskSize) {
+      this.maxDiskSize = maxDiskSize;
+    }
+  }
+
+  public static class Coalescing {
+
+    private boolean enabled = true;
+
+    // How long a request waits for an identical in-flight conversion before converting by itself
+    private Duration maxWait = Duration.ofMinutes(1);
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public Duration getMaxWait() {
+      return maxWait;
+    }
+
+    public void setMaxWait(Duration maxWait) {
+      this.maxWait = maxWait;
+    }
+  }
+
+  public static class Download {
+
+    // biopax-url-to-json fetch timeouts
+    private Duration connectTimeout = Duration.ofSeconds(10);
+    private Duration readTimeout = Duration.ofMinutes(1);
+
+    // Optional local copies of the (decompressed) downloads, revalidated with ETag/Last-Modified
+    // (not used if empty), and their size bound
+    private String cacheDirectory;
+    private DataSize maxCacheSize = DataSize.ofGigabytes(4);
+
+    public Duration getConnectTimeout() {
+      return connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+      this.connectTimeout = connectTimeout;
+    }
+
+    public Duration getReadTimeout() {
+      return readTimeout;
+    }
+
+    public void setReadTimeout(Duration readTimeout) {
+      this.readTimeout = readTimeout;
+    }
+
+    public String getCacheDirectory() {
+      return cacheDirectory;
+    }
+
+    public void setCacheDirectory(String cacheDirectory) {
+      this.cacheDirectory = cacheDirectory;
+    }
+
+    public DataSize getMaxCacheSize() {
+      return maxCacheSize;
+    }
+
+    public void setMaxCacheSize(DataSize maxCacheSize) {
+      this.maxCacheSize = maxCacheSize;
+    }
+  }
+
+  public static class ModelCache {
+
+    private boolean enabled = true;
+
+    // Bound of the parsed BioPAX model cache: total number of BioPAX elements of the cached models
+    // (larger models are not cached). By default, about a quarter of the heap (at ~2KB per element),
+    // next to the half of it the admission control budgets for the conversions.
+    private long maxElements = Runtime.getRuntime().maxMemory() / 4 / 2048;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public long getMaxElements() {
+      return maxElements;
+    }
+
+    public void setMaxElements(long maxElements) {
+      this.maxElements = maxElements;
+    }
+  }
+
+  public static class Admission {
+
+    private boolean enabled = true;
+
+    // Max heavy conversions running at a time
+    private int maxConcurrent = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+    // Heap budget of the heavy conversions running at a time; a conversion is estimated to take
+    // its Content-Length times the memory factor (or the unknown size estimate, e.g. for a URL)
+    private DataSize maxMemory = DataSize.ofBytes(Runtime.getRuntime().maxMemory() / 2);
+    private double memoryFactor = 10;
+    private DataSize unknownSizeEstimate = DataSize.ofMegabytes(512);
+
+    // Max requests waiting for admission (more are rejected with 429) and how long they wait (then 503)
+    private int maxQueue = 16;
+    private Duration maxWait = Duration.ofSeconds(30);
+
+    // Retry-After of the rejections
+    private Duration retryAfter = Duration.ofSeconds(30);
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public int getMaxConcurrent() {
+      return maxConcurrent;
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+      this.maxConcurrent = maxConcurrent;
+    }
+
+    public DataSize getMaxMemory() {
+      return maxMemory;
+    }
+
+    public void setMaxMemory(DataSize maxMemory) {
+      this.maxMemory = maxMemory;
+    }
+
+    public double getMemoryFactor() {
+      return memoryFactor;
+    }
+
+    public void setMemoryFactor(double memoryFactor) {
+      this.memoryFactor = memoryFactor;
+    }
+
+    public DataSize getUnknownSizeEstimate() {
+      return unknownSizeEstimate;
+    }
+
+    public void setUnknownSizeEstimate(DataSize unknownSizeEstimate) {
+      this.unknownSizeEstimate = unknownSizeEstimate;
+    }
+
+    public int getMaxQueue() {
+      return maxQueue;
+    }
+
+    public void setMaxQueue(int maxQueue) {
+      this.maxQueue = maxQueue;
+    }
+
+    public Duration getMaxWait() {
+      return maxWait;
+    }
+
+    public void setMaxWait(Duration maxWait) {
+      this.maxWait = maxWait;
+    }
+
+    public Duration getRetryAfter() {
+      return retryAfter;
+    }
+
+    public void setRetryAfter(Duration retryAfter) {
+      this.retryAfter = retryAfter;
+    }
+  }
+
+  public static class Lanes {
+
+    // Requests larger than this run in the heavy lane, whatever the endpoint
+    private DataSize heavyMinSize = DataSize.ofMegabytes(1);
+
+    // Threads and queue capacity of the lanes (more conversions are rejected with 503)
+    private int fastThreads = 2 * Runtime.getRuntime().availableProcessors();
+    private int fastQueue = 1000;
+    private int heavyThreads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    private int heavyQueue = 32;
+
+    public DataSize getHeavyMinSize() {
+      return heavyMinSize;
+    }
+
+    public void setHeavyMinSize(DataSize heavyMinSize) {
+      this.heavyMinSize = heavyMinSize;
+    }
+
+    public int getFastThreads() {
+      return fastThreads;
+    }
+
+    public void setFastThreads(int fastThreads) {
+      this.fastThreads = fastThreads;
+    }
+
+    public int getFastQueue() {
+      return fastQueue;
+    }
+
+    public void setFastQueue(int fastQueue) {
+      this.fastQueue = fastQueue;
+    }
+
+    public int getHeavyThreads() {
+      return heavyThreads;
+    }
+
+    public void setHeavyThreads(int heavyThreads) {
+      this.heavyThreads = heavyThreads;
+    }
+
+    public int getHeavyQueue() {
+      return heavyQueue;
+    }
+
+    public void setHeavyQueue(int heavyQueue) {
+      this.heavyQueue = heavyQueue;
+    }
+  }
+
+  public static class BiopaxToJson {
+
+    // Threads (shared by all the requests) building the PMID documents of a conversion in parallel;
+    // 1 converts each model sequentially, in its request's thread
+    private int parallelism = 1;
+
+    // Parse the BioPAX with the selective reader (a pruned model with only what the conversion uses)
+    // instead of the complete paxtools model
+    private boolean selectiveReader = false;
+
+    // Whole (not partial) conversions of NDJSON requests or URL downloads larger than this are converted in shards,
+    // with a bounded memory (see ShardedBiopaxToFactoid); never if empty
+    private DataSize shardedMinSize;
+
+    // Max size of a request body converted in shards (instead of maxRequestSize), bound by the temporary disk space
+    private DataSize shardedMaxRequestSize = DataSize.ofGigabytes(16);
+
+    // Max time a conversion in shards may take (instead of timeBudget); not limited if empty
+    private Duration shardedTimeBudget;
+
+    // Root interactions converted at a time, and files the PMID documents are spilled to
+    private int shardSize = 10000;
+    private int shardPartitions = 64;
+
+    // A partition file larger than this is split before its documents are merged (in memory)
+    private DataSize shardPartitionMaxSize = DataSize.ofMegabytes(64);
+
+    // Where the temporary files go (default: java.io.tmpdir)
+    private String shardDirectory;
+
+    public int getParallelism() {
+      return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+      this.parallelism = parallelism;
+    }
+
+    public boolean isSelectiveReader() {
+      return selectiveReader;
+    }
+
+    public void setSelectiveReader(boolean selectiveReader) {
+      this.selectiveReader = selectiveReader;
+    }
+
+    public DataSize getShardedMinSize() {
+      return shardedMinSize;
+    }
+
+    public void setShardedMinSize(DataSize shardedMinSize) {
+      this.shardedMinSize = shardedMinSize;
+    }
+
+    public DataSize getShardedMaxRequestSize() {
+      return shardedMaxRequestSize;
+    }
+
+    public void setShardedMaxRequestSize(DataSize shardedMaxRequestSize) {
+      this.shardedMaxRequestSize = shardedMaxRequestSize;
+    }
+
+    public Duration getShardedTimeBudget() {
+      return shardedTimeBudget;
+    }
+
+    public void setShardedTimeBudget(Duration shardedTimeBudget) {
+      this.shardedTimeBudget = shardedTimeBudget;
+    }
+
+    public int getShardSize() {
+      return shardSize;
+    }
+
+    public void setShardSize(int shardSize) {
+      this.shardSize = shardSize;
+    }
+
+    public int getShardPartitions() {
+      return shardPartitions;
+    }
+
+    public void setShardPartitions(int shardPartitions) {
+      this.shardPartitions = shardPartitions;
+    }
+
+    public DataSize getShardPartitionMaxSize() {
+      return shardPartitionMaxSize;
+    }
+
+    public void setShardPartitionMaxSize(DataSize shardPartitionMaxSize) {
+      this.shardPartitionMaxSize = shardPartitionMaxSize;
+    }
+
+    public String getShardDirectory() {
+      return shardDirectory;
+    }
+
+    public void setShardDirectory(String shardDirectory) {
+      this.shardDirectory = shardDirectory;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package factoid.web;
+
+import factoid.converter.CancellationToken;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Notices that the client went away while a JSON conversion has not written anything yet (e.g. while
+ * the model is parsed and indexed), which the servlet container only reports on a write: every interval
+ * until the first byte of the response, a space (JSON whitespace, ignored by the client) is written and
+ * flushed, and the conversion's token is cancelled as soon as that fails.
+ * The first space commits the response, so an error after it can no longer change the status (200);
+ * the response is cut short instead. Hence it is only used with factoid.disconnect-probe-interval set.
+ */
+class DisconnectProbe extends FilterOutputStream {
+
+  private final CancellationToken token;
+  private final ScheduledFuture<?> task;
+  private volatile boolean started;
+
+  DisconnectProbe(OutputStream out, CancellationToken token, ScheduledExecutorService scheduler, Duration interval) {
+    super(out);
+    this.token = token;
+    long millis = interval.toMillis();
+    task = scheduler.scheduleWithFixedDelay(this::probe, millis, millis, TimeUnit.MILLISECONDS);
+  }
+
+  private synchronized void probe() {
+    if (started) {
+      return;
+    }
+    try {
+      out.write(' ');
+      out.flush();
+    } catch (IOException e) {
+      token.cancel();
+      stop();
+    }
+  }
+
+  // no more probes, once the conversion writes itself or is over (waits for a probe in progress)
+  synchronized void stop() {
+    started = true;
+    task.cancel(false);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (!started) {
+      stop();
+    }
+    out.write(b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (!started) {
+      stop();
+    }
+    out.write(b, off, len);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (!started) {
+      stop();
+    }
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    stop();
+    super.close();
+  }
+}
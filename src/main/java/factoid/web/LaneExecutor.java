@@ -0,0 +1,95 @@
+package factoid.web;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/*
+ * The executor of the streamed responses (where the conversions run, see Controller), with two lanes:
+ * heavy conversions (the heavy endpoints, or any request larger than a threshold) go to a small bounded
+ * pool with its own queue, so they cannot hold up the small json-to-biopax/json-to-sbgn requests,
+ * which get the other (fast) pool. The lane is chosen by the request being handled when the task is submitted.
+ * A full queue rejects the task (TaskRejectedException), which the controller turns into 503.
+ */
+@Component
+public class LaneExecutor implements AsyncTaskExecutor {
+
+  private final Set<String> heavyPaths;
+  private final long heavyMinSize;
+  private final ThreadPoolTaskExecutor fast;
+  private final ThreadPoolTaskExecutor heavy;
+
+  public LaneExecutor(ConverterProperties properties, MeterRegistry registry) {
+    ConverterProperties.Lanes lanes = properties.getLanes();
+    heavyPaths = new HashSet<>(properties.getHeavyPaths());
+    heavyMinSize = lanes.getHeavyMinSize().toBytes();
+    fast = pool("fast-", lanes.getFastThreads(), lanes.getFastQueue(), registry);
+    heavy = pool("heavy-", lanes.getHeavyThreads(), lanes.getHeavyQueue(), registry);
+  }
+
+  private static ThreadPoolTaskExecutor pool(String name, int threads, int queue, MeterRegistry registry) {
+    ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+    pool.setThreadNamePrefix(name);
+    pool.setCorePoolSize(threads);
+    pool.setMaxPoolSize(threads);
+    pool.setQueueCapacity(queue);
+    pool.initialize();
+    String lane = name.substring(0, name.length() - 1);
+    Gauge.builder("factoid.lane.active", pool, ThreadPoolTaskExecutor::getActiveCount)
+      .tag("lane", lane).description("Conversions running").register(registry);
+    Gauge.builder("factoid.lane.queued", pool, p -> p.getThreadPoolExecutor().getQueue().size())
+      .tag("lane", lane).description("Conversions waiting for a thread").register(registry);
+    return pool;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    fast.shutdown();
+    heavy.shutdown();
+  }
+
+  boolean isHeavy(HttpServletRequest request) {
+    return heavyPaths.contains(AdmissionFilter.path(request)) || request.getContentLengthLong() > heavyMinSize;
+  }
+
+  private AsyncTaskExecutor lane() {
+    RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+    if (attributes instanceof ServletRequestAttributes && isHeavy(((ServletRequestAttributes) attributes).getRequest())) {
+      return heavy;
+    }
+    return fast;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    lane().execute(task);
+  }
+
+  @Override
+  @Deprecated
+  public void execute(Runnable task, long startTimeout) {
+    lane().execute(task, startTimeout);
+  }
+
+  @Override
+  public Future<?> submit(Runnable task) {
+    return lane().submit(task);
+  }
+
+  @Override
+  public <T> Future<T> submit(Callable<T> task) {
+    return lane().submit(task);
+  }
+}
@@ -0,0 +1,151 @@
+package factoid.web;
+
+import factoid.converter.CancellationToken;
+import factoid.converter.PmidIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.biopax.paxtools.model.Model;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Parsed BioPAX models of the URLs converted recently (biopax-url-to-json), keyed by the URL, along with
+ * the validator of their content (ETag or Last-Modified), so that converting the same archive again
+ * skips the RDF/XML parsing. A model whose content has changed is dropped (or replaced) as soon as that
+ * turns out. The models are only read by the converters, never modified.
+ * The cache is bounded by the total weight of the models, i.e. their number of BioPAX elements
+ * (a rough measure of the heap they take), evicting the least recently used ones.
+ * The PMID index of a cached model (biopax-to-json) is kept along with it, built on the first use.
+ * By default the bound is relative to the heap (see ConverterProperties.ModelCache).
+ */
+@Component
+public class ModelCache {
+
+  private final boolean enabled;
+  private final long maxWeight;
+
+  // access-ordered, i.e. the eldest entry is the least recently used one
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long weight;
+
+  private final Counter hits;
+  private final Counter misses;
+  private final Counter evictions;
+
+  private static class Entry {
+    final Model model;
+    final String validator;
+    final long weight;
+    volatile PmidIndex pmidIndex;
+
+    Entry(Model model, String validator, long weight) {
+      this.model = model;
+      this.validator = validator;
+      this.weight = weight;
+    }
+  }
+
+  public ModelCache(ConverterProperties properties, MeterRegistry registry) {
+    ConverterProperties.ModelCache settings = properties.getModelCache();
+    enabled = settings.isEnabled();
+    maxWeight = settings.getMaxElements();
+
+    hits = Counter.builder("factoid.model.cache.requests").tag("result", "hit")
+      .description("Parsed BioPAX model cache lookups").register(registry);
+    misses = Counter.builder("factoid.model.cache.requests").tag("result", "miss")
+      .description("Parsed BioPAX model cache lookups").register(registry);
+    evictions = Counter.builder("factoid.model.cache.evictions")
+      .description("Parsed BioPAX models evicted from the cache").register(registry);
+    Gauge.builder("factoid.model.cache.entries", this, ModelCache::size).register(registry);
+    Gauge.builder("factoid.model.cache.elements", this, ModelCache::weight).register(registry);
+  }
+
+  // the cached model or null; content without a validator is never cached,
+  // and a model of other (stale) content is dropped
+  public Model get(String url, String validator) {
+    if (!enabled) {
+      return null;
+    }
+    Entry entry = null;
+    if (validator != null) {
+      synchronized (this) {
+        entry = entries.get(url);
+        if (entry != null && !entry.validator.equals(validator)) {
+          entries.remove(url);
+          weight -= entry.weight;
+          evictions.increment();
+          entry = null;
+        }
+      }
+    }
+    if (entry == null) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return entry.model;
+  }
+
+  // whether a model of the URL is cached (whatever its validator), i.e. worth validating the content
+  public synchronized boolean contains(String url) {
+    return enabled && entries.containsKey(url);
+  }
+
+  // replaces the model of the URL (if any), e.g. of stale content
+  public void put(String url, String validator, Model model) {
+    long w = model.getObjects().size();
+    if (!enabled || validator == null || w > maxWeight) {
+      return;
+    }
+    synchronized (this) {
+      Entry old = entries.put(url, new Entry(model, validator, w));
+      if (old != null) {
+        weight -= old.weight;
+      }
+      weight += w;
+      Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+      while (weight > maxWeight && it.hasNext()) {
+        weight -= it.next().getValue().weight;
+        it.remove();
+        evictions.increment();
+      }
+    }
+  }
+
+  // The index of a cached model is built once (concurrent first uses may build it twice),
+  // the index of any other model every time
+  public PmidIndex pmidIndex(Model model, CancellationToken token) {
+    Entry entry = entryOf(model);
+    if (entry == null) {
+      return PmidIndex.build(model, token);
+    }
+    PmidIndex index = entry.pmidIndex;
+    if (index == null) {
+      index = PmidIndex.build(model, token);
+      entry.pmidIndex = index;
+    }
+    return index;
+  }
+
+  // there are a few (large) models at most, so they are just looked through
+  private synchronized Entry entryOf(Model model) {
+    for (Entry entry : entries.values()) {
+      if (entry.model == model) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long weight() {
+    return weight;
+  }
+}
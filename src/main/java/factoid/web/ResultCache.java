@@ -0,0 +1,341 @@
+package factoid.web;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Content-addressed cache of conversion results: the key is a SHA-256 hash of the endpoint name,
+ * the settings that change the output (the ids, the BioPAX reader) and the request body, the value is the encoded (UTF-8) response body, so that a hit skips parsing,
+ * model building and serialization altogether. Entries are kept in a size- and byte-bounded LRU map,
+ * optionally backed by a directory (write-through, evicting the least recently used files as well).
+ */
+@Component
+public class ResultCache {
+
+  private static final Logger logger = Logger.getLogger(ResultCache.class.getName());
+
+  private final boolean enabled;
+  private final int maxEntries;
+  private final long maxBytes;
+  private final long maxEntryBytes;
+  private final Path directory;
+  private final long maxDiskBytes;
+  // the settings the results depend on, so that a persisted result of other settings is not used
+  private final String settings;
+
+  // access-ordered, i.e. the eldest entry is the least recently used one
+  private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+  private final AtomicLong diskBytes = new AtomicLong();
+
+  private final Counter memoryHits;
+  private final Counter diskHits;
+  private final Counter misses;
+  private final Counter evictions;
+
+  public ResultCache(ConverterProperties properties, MeterRegistry registry) {
+    ConverterProperties.Cache cache = properties.getCache();
+    enabled = cache.isEnabled();
+    maxEntries = cache.getMaxEntries();
+    maxBytes = cache.getMaxSize().toBytes();
+    maxEntryBytes = cache.getMaxEntrySize().toBytes();
+    directory = (cache.getDirectory() == null || cache.getDirectory().isEmpty()) ? null : Paths.get(cache.getDirectory());
+    maxDiskBytes = cache.getMaxDiskSize().toBytes();
+    settings = "ids=" + properties.getIds() + ",selective-reader=" + properties.getBiopaxToJson().isSelectiveReader();
+
+    memoryHits = Counter.builder("factoid.cache.requests").tag("result", "hit").tag("tier", "memory")
+      .description("Conversion result cache lookups").register(registry);
+    diskHits = Counter.builder("factoid.cache.requests").tag("result", "hit").tag("tier", "disk")
+      .description("Conversion result cache lookups").register(registry);
+    misses = Counter.builder("factoid.cache.requests").tag("result", "miss").tag("tier", "none")
+      .description("Conversion result cache lookups").register(registry);
+    evictions = Counter.builder("factoid.cache.evictions")
+      .description("Conversion results evicted from the memory cache").register(registry);
+    Gauge.builder("factoid.cache.entries", this, ResultCache::size).register(registry);
+    Gauge.builder("factoid.cache.size", this, ResultCache::byteSize).baseUnit("bytes").register(registry);
+
+    if (enabled && directory != null) {
+      try {
+        Files.createDirectories(directory);
+        // the temporary files of writes interrupted by a shutdown
+        try (Stream<Path> files = Files.walk(directory)) {
+          for (Path tmp : files.filter(ResultCache::isTemporary).collect(Collectors.toList())) {
+            Files.deleteIfExists(tmp);
+          }
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+          diskBytes.set(files.filter(Files::isRegularFile).mapToLong(ResultCache::fileSize).sum());
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException("Cannot use cache directory " + directory, e);
+      }
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public String key(String endpoint, byte[] body) {
+    MessageDigest digest = sha256();
+    digest.update(endpoint.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    digest.update(settings.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    digest.update(body);
+    return toHex(digest.digest());
+  }
+
+  public String key(String endpoint, String body) {
+    return key(endpoint, body.getBytes(StandardCharsets.UTF_8));
+  }
+
+  // the cached result or null
+  public byte[] get(String key) {
+    if (!enabled) {
+      return null;
+    }
+    byte[] value;
+    synchronized (this) {
+      value = entries.get(key);
+    }
+    if (value != null) {
+      memoryHits.increment();
+      return value;
+    }
+    value = readFromDisk(key);
+    if (value != null) {
+      diskHits.increment();
+      putInMemory(key, value);
+      return value;
+    }
+    misses.increment();
+    return null;
+  }
+
+  public void put(String key, byte[] value) {
+    if (!enabled || value.length > maxEntryBytes) {
+      return;
+    }
+    putInMemory(key, value);
+    writeToDisk(key, value);
+  }
+
+  // A response body that writes the result through to the client while also capturing it
+  // for the cache (unless it turns out to be larger than the max entry size). The captured result
+  // (or null if there is none, e.g. the write failed) is also passed on to the given consumer.
+  public StreamingResponseBody writeThrough(String key, StreamingResponseBody body, Consumer<byte[]> onDone) {
+    return out -> {
+      byte[] result = null;
+      try {
+        CapturingOutputStream capture = new CapturingOutputStream(out, maxEntryBytes);
+        body.writeTo(capture);
+        capture.flush();
+        if (!capture.isOverflowed()) {
+          result = capture.toByteArray();
+          put(key, result);
+        }
+      } finally {
+        onDone.accept(result);
+      }
+    };
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long byteSize() {
+    return bytes;
+  }
+
+  private synchronized void putInMemory(String key, byte[] value) {
+    byte[] old = entries.put(key, value);
+    if (old != null) {
+      bytes -= old.length;
+    }
+    bytes += value.length;
+    Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+    while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+      Map.Entry<String, byte[]> eldest = it.next();
+      bytes -= eldest.getValue().length;
+      it.remove();
+      evictions.increment();
+    }
+  }
+
+  private Path file(String key) {
+    return directory.resolve(key.substring(0, 2)).resolve(key);
+  }
+
+  private byte[] readFromDisk(String key) {
+    if (directory == null) {
+      return null;
+    }
+    Path file = file(key);
+    try {
+      byte[] value = Files.readAllBytes(file);
+      // the modification time is the last access time for the disk LRU eviction
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      return value;
+    } catch (IOException e) {
+      // not cached (or just evicted)
+      return null;
+    }
+  }
+
+  private void writeToDisk(String key, byte[] value) {
+    if (directory == null) {
+      return;
+    }
+    Path file = file(key);
+    try {
+      Files.createDirectories(file.getParent());
+      Path tmp = Files.createTempFile(file.getParent(), key, ".tmp");
+      Files.write(tmp, value);
+      // a result written again (e.g. by concurrent conversions) replaces the file
+      long replaced = Files.exists(file) ? fileSize(file) : 0;
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      if (diskBytes.addAndGet(value.length - replaced) > maxDiskBytes) {
+        evictFromDisk();
+      }
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to write cache file " + file, e);
+    }
+  }
+
+  // delete the least recently used files until the disk tier is down to 90% of its max size
+  // (not the temporary files of the writes in progress, which are not counted either)
+  private synchronized void evictFromDisk() throws IOException {
+    List<Path> files;
+    try (Stream<Path> s = Files.walk(directory)) {
+      files = s.filter(f -> Files.isRegularFile(f) && !isTemporary(f))
+        .sorted(Comparator.comparingLong(ResultCache::lastModified))
+        .collect(Collectors.toList());
+    }
+    long total = files.stream().mapToLong(ResultCache::fileSize).sum();
+    for (Path f : files) {
+      if (total <= maxDiskBytes * 0.9) {
+        break;
+      }
+      long size = fileSize(f);
+      if (Files.deleteIfExists(f)) {
+        total -= size;
+      }
+    }
+    diskBytes.set(total);
+  }
+
+  private static boolean isTemporary(Path file) {
+    return file.getFileName().toString().endsWith(".tmp");
+  }
+
+  private static long fileSize(Path file) {
+    try {
+      return Files.size(file);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private static long lastModified(Path file) {
+    try {
+      return Files.getLastModifiedTime(file).toMillis();
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte[] hash) {
+    StringBuilder sb = new StringBuilder(hash.length * 2);
+    for (byte b : hash) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+      sb.append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  // Passes everything through and keeps a copy until the copy would exceed the limit
+  private static class CapturingOutputStream extends FilterOutputStream {
+
+    private final long limit;
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+    CapturingOutputStream(OutputStream out, long limit) {
+      super(out);
+      this.limit = limit;
+    }
+
+    boolean isOverflowed() {
+      return copy == null;
+    }
+
+    byte[] toByteArray() {
+      return copy.toByteArray();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      if (copy != null) {
+        if (copy.size() + 1 > limit) {
+          copy = null;
+        } else {
+          copy.write(b);
+        }
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      capture(b, off, len);
+    }
+
+    private void capture(byte[] b, int off, int len) {
+      if (copy == null) {
+        return;
+      }
+      if (copy.size() + len > limit) {
+        copy = null;
+      } else {
+        copy.write(b, off, len);
+      }
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package factoid.web;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * Coalesces concurrent identical conversions (same cache key): the first request (the leader) runs
+ * the conversion, the others (followers) wait for and share its encoded result.
+ */
+@Component
+public class SingleFlight {
+
+  private final boolean enabled;
+  private final long maxWaitMillis;
+  private final ConcurrentHashMap<String, CompletableFuture<byte[]>> calls = new ConcurrentHashMap<>();
+  private final Counter coalesced;
+
+  public SingleFlight(ConverterProperties properties, MeterRegistry registry) {
+    enabled = properties.getCoalescing().isEnabled();
+    maxWaitMillis = properties.getCoalescing().getMaxWait().toMillis();
+    coalesced = Counter.builder("factoid.coalesced.requests")
+      .description("Requests that shared the result of an identical in-flight conversion").register(registry);
+  }
+
+  // Joins the in-flight conversion with the key, or starts a new one (with this caller as the leader)
+  public Call join(String key) {
+    if (!enabled) {
+      return new Call(key, new CompletableFuture<>(), true);
+    }
+    CompletableFuture<byte[]> result = new CompletableFuture<>();
+    CompletableFuture<byte[]> inFlight = calls.putIfAbsent(key, result);
+    if (inFlight != null) {
+      coalesced.increment();
+      return new Call(key, inFlight, false);
+    }
+    return new Call(key, result, true);
+  }
+
+  public class Call {
+
+    private final String key;
+    private final CompletableFuture<byte[]> result;
+    private final boolean leader;
+
+    private Call(String key, CompletableFuture<byte[]> result, boolean leader) {
+      this.key = key;
+      this.result = result;
+      this.leader = leader;
+    }
+
+    public boolean isLeader() {
+      return leader;
+    }
+
+    // Leader: publishes the result; null means the followers have to convert by themselves
+    // (e.g. the result was too large to be shared or the leader's client went away).
+    public void complete(byte[] value) {
+      calls.remove(key, result);
+      result.complete(value);
+    }
+
+    // Leader: the conversion failed (e.g. bad input), so it fails for the followers as well
+    public void fail(Throwable e) {
+      calls.remove(key, result);
+      result.completeExceptionally(e);
+    }
+
+    // Follower: the leader's result, or null if it is not available (in time)
+    public byte[] await() throws IOException {
+      try {
+        return result.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        return null;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for an identical conversion", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
+    }
+  }
+}
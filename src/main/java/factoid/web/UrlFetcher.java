@@ -0,0 +1,394 @@
+package factoid.web;
+
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/*
+ * Fetches (possibly gzipped) BioPAX files by URL: a single request with connect/read timeouts,
+ * gzip detected from the first bytes, and the (decompressed) content streamed to the caller.
+ * Optionally, downloads are kept in a local directory and revalidated with ETag/Last-Modified,
+ * so repeated conversions of the same archive skip the network and the decompression.
+ */
+@Component
+public class UrlFetcher {
+
+  private static final Logger logger = Logger.getLogger(UrlFetcher.class.getName());
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  // BioPAX RDF/XML gzips to about a tenth of its size; the (decompressed) size of a gzipped download is estimated with it
+  static final int GZIP_RATIO = 10;
+
+  private final int connectTimeout;
+  private final int readTimeout;
+  private final Path directory;
+  private final long maxCacheBytes;
+
+  public UrlFetcher(ConverterProperties properties) {
+    ConverterProperties.Download download = properties.getDownload();
+    connectTimeout = (int) download.getConnectTimeout().toMillis();
+    readTimeout = (int) download.getReadTimeout().toMillis();
+    String dir = download.getCacheDirectory();
+    directory = (dir == null || dir.isEmpty()) ? null : Paths.get(dir);
+    maxCacheBytes = download.getMaxCacheSize().toBytes();
+  }
+
+  // The content of the URL (decompressed), plus a validator (ETag or Last-Modified and length)
+  // that changes when the content does; the validator is null if the server provides none.
+  public static class Download implements Closeable {
+
+    private final InputStream inputStream;
+    private final String validator;
+    private final boolean fromCache;
+    private final long size;
+
+    Download(InputStream inputStream, String validator, boolean fromCache, long size) {
+      this.inputStream = inputStream;
+      this.validator = validator;
+      this.fromCache = fromCache;
+      this.size = size;
+    }
+
+    public InputStream getInputStream() {
+      return inputStream;
+    }
+
+    public String getValidator() {
+      return validator;
+    }
+
+    public boolean isFromCache() {
+      return fromCache;
+    }
+
+    // The size of the (decompressed) content: estimated if it is gzipped (see GZIP_RATIO), -1 if unknown
+    public long getSize() {
+      return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+      inputStream.close();
+    }
+  }
+
+  public Download open(String url) throws IOException {
+    URLConnection conn = new URL(url).openConnection();
+    conn.setConnectTimeout(connectTimeout);
+    conn.setReadTimeout(readTimeout);
+
+    Path file = null;
+    Properties cached = null;
+    if (directory != null) {
+      file = directory.resolve(sha256(url));
+      cached = readMeta(file);
+      if (cached != null && conn instanceof HttpURLConnection) {
+        if (cached.getProperty("etag") != null) {
+          conn.setRequestProperty("If-None-Match", cached.getProperty("etag"));
+        }
+        if (cached.getProperty("lastModified") != null) {
+          conn.setRequestProperty("If-Modified-Since", cached.getProperty("lastModified"));
+        }
+      }
+    }
+
+    String validator;
+    if (conn instanceof HttpURLConnection) {
+      HttpURLConnection http = (HttpURLConnection) conn;
+      int status = http.getResponseCode();
+      if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+        http.disconnect();
+        return fromCache(file, cached);
+      }
+      if (status < 200 || status >= 300) {
+        http.disconnect();
+        throw new IOException("Failed to fetch " + url + ": HTTP " + status);
+      }
+      String etag = conn.getHeaderField("ETag");
+      String lastModified = conn.getHeaderField("Last-Modified");
+      validator = validator(conn);
+      if (cached == null) {
+        cached = new Properties();
+      }
+      cached.clear();
+      if (etag != null) {
+        cached.setProperty("etag", etag);
+      }
+      if (lastModified != null) {
+        cached.setProperty("lastModified", lastModified);
+      }
+    } else {
+      // e.g. a file: URL; the modification time and length tell whether the cached copy is current
+      validator = validator(conn);
+      if (cached != null && validator != null && validator.equals(cached.getProperty("validator"))) {
+        conn.getInputStream().close();
+        return fromCache(file, cached);
+      }
+      cached = new Properties();
+    }
+
+    BufferedInputStream raw = new BufferedInputStream(conn.getInputStream(), BUFFER_SIZE);
+    boolean gzipped = isGzipped(raw);
+    InputStream is = gzipped ? gunzipped(raw) : raw;
+    long length = conn.getContentLengthLong();
+    long size = length < 0 ? -1 : (gzipped ? length * GZIP_RATIO : length);
+    // content that would not fit in the cache (by its length, estimated if gzipped) is not copied at all
+    if (file != null && validator != null && size <= maxCacheBytes) {
+      cached.setProperty("url", url);
+      cached.setProperty("validator", validator);
+      is = new CachingInputStream(is, file, cached);
+    }
+    return new Download(is, validator, false, size);
+  }
+
+  // The validator (see Download) of the current content of the URL, without downloading it: from
+  // the headers of a HEAD request (or the file's modification time and length); null if there is none
+  public String validator(String url) throws IOException {
+    URLConnection conn = new URL(url).openConnection();
+    conn.setConnectTimeout(connectTimeout);
+    conn.setReadTimeout(readTimeout);
+    if (conn instanceof HttpURLConnection) {
+      HttpURLConnection http = (HttpURLConnection) conn;
+      http.setRequestMethod("HEAD");
+      try {
+        int status = http.getResponseCode();
+        return status >= 200 && status < 300 ? validator(conn) : null;
+      } finally {
+        http.disconnect();
+      }
+    }
+    String validator = validator(conn);
+    conn.getInputStream().close();
+    return validator;
+  }
+
+  // ETag, or Last-Modified and length
+  private static String validator(URLConnection conn) {
+    if (conn instanceof HttpURLConnection) {
+      String etag = conn.getHeaderField("ETag");
+      String lastModified = conn.getHeaderField("Last-Modified");
+      return etag != null ? etag
+        : (lastModified != null ? lastModified + "/" + conn.getContentLengthLong() : null);
+    }
+    return conn.getLastModified() > 0 ? conn.getLastModified() + "/" + conn.getContentLengthLong() : null;
+  }
+
+  private Download fromCache(Path file, Properties meta) throws IOException {
+    // the modification time is the last access time for the LRU eviction
+    Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    InputStream is = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+    return new Download(is, meta.getProperty("validator"), true, Files.size(file));
+  }
+
+  // Detects gzip by the magic number rather than trying (and then re-opening the URL)
+  private static boolean isGzipped(BufferedInputStream is) throws IOException {
+    is.mark(2);
+    int b1 = is.read();
+    int b2 = is.read();
+    is.reset();
+    return b1 == 0x1f && b2 == 0x8b;
+  }
+
+  private static InputStream gunzipped(InputStream is) throws IOException {
+    return new BufferedInputStream(new GZIPInputStream(is, BUFFER_SIZE), BUFFER_SIZE);
+  }
+
+  private static Path metaFile(Path file) {
+    return file.resolveSibling(file.getFileName() + ".properties");
+  }
+
+  private static Properties readMeta(Path file) {
+    Path meta = metaFile(file);
+    if (!Files.isRegularFile(file) || !Files.isRegularFile(meta)) {
+      return null;
+    }
+    Properties p = new Properties();
+    try (Reader reader = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+      p.load(reader);
+      return p;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  // delete the least recently used downloads until the cache is down to its max size
+  private synchronized void evict() throws IOException {
+    List<Path> files;
+    try (Stream<Path> s = Files.list(directory)) {
+      files = s.filter(f -> Files.isRegularFile(f) && !f.toString().endsWith(".properties")
+          && !f.toString().endsWith(".tmp"))
+        .sorted(Comparator.comparingLong(UrlFetcher::lastModified))
+        .collect(Collectors.toList());
+    }
+    long total = files.stream().mapToLong(UrlFetcher::fileSize).sum();
+    for (Path f : files) {
+      if (total <= maxCacheBytes) {
+        break;
+      }
+      total -= fileSize(f);
+      Files.deleteIfExists(metaFile(f));
+      Files.deleteIfExists(f);
+    }
+  }
+
+  private static long fileSize(Path file) {
+    try {
+      return Files.size(file);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private static long lastModified(Path file) {
+    try {
+      return Files.getLastModifiedTime(file).toMillis();
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private static String sha256(String s) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+      StringBuilder sb = new StringBuilder(hash.length * 2);
+      for (byte b : hash) {
+        sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+        sb.append(Character.forDigit(b & 0xf, 16));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // Copies the content to a temporary file while it is being read; the file goes into the cache
+  // only if the content is read to the end (an interrupted download is discarded on close),
+  // and the copy is given up as soon as it is larger than the whole cache (e.g. no Content-Length).
+  private class CachingInputStream extends FilterInputStream {
+
+    private final Path file;
+    private final Properties meta;
+    private final Path tmp;
+    private OutputStream copy;
+    private long copied;
+    private boolean complete;
+
+    CachingInputStream(InputStream in, Path file, Properties meta) throws IOException {
+      super(in);
+      this.file = file;
+      this.meta = meta;
+      Files.createDirectories(directory);
+      tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+      copy = new BufferedOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if (b < 0) {
+        commit();
+      } else if (copy != null) {
+        copy.write(b);
+        copied(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = in.read(b, off, len);
+      if (n < 0) {
+        commit();
+      } else if (copy != null) {
+        copy.write(b, off, n);
+        copied(n);
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // skipped bytes would be missing from the copy
+      byte[] buf = new byte[(int) Math.min(n, BUFFER_SIZE)];
+      int read = read(buf, 0, buf.length);
+      return Math.max(read, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    private void copied(int n) throws IOException {
+      copied += n;
+      if (copied > maxCacheBytes) {
+        copy.close();
+        copy = null;
+        Files.deleteIfExists(tmp);
+      }
+    }
+
+    private void commit() {
+      if (copy == null || complete) {
+        return;
+      }
+      complete = true;
+      try {
+        copy.close();
+        copy = null;
+        Path metaTmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try (Writer writer = Files.newBufferedWriter(metaTmp, StandardCharsets.UTF_8)) {
+          meta.store(writer, null);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(metaTmp, metaFile(file), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        evict();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Failed to cache the download as " + file, e);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        if (copy != null) {
+          copy.close();
+          copy = null;
+        }
+        if (!complete) {
+          Files.deleteIfExists(tmp);
+        }
+      }
+    }
+  }
+}
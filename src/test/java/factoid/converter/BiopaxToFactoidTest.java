@@ -4,21 +4,44 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 
 import org.biopax.paxtools.io.BioPAXIOHandler;
 import org.biopax.paxtools.io.SimpleIOHandler;
+import org.biopax.paxtools.model.BioPAXLevel;
 import org.biopax.paxtools.model.Model;
+import org.biopax.paxtools.model.level3.BioSource;
+import org.biopax.paxtools.model.level3.BiochemicalReaction;
+import org.biopax.paxtools.model.level3.Control;
+import org.biopax.paxtools.model.level3.Evidence;
+import org.biopax.paxtools.model.level3.EvidenceCodeVocabulary;
+import org.biopax.paxtools.model.level3.MolecularInteraction;
+import org.biopax.paxtools.model.level3.Protein;
+import org.biopax.paxtools.model.level3.ProteinReference;
+import org.biopax.paxtools.model.level3.PublicationXref;
+import org.biopax.paxtools.model.level3.UnificationXref;
 import org.junit.jupiter.api.Test;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import factoid.model.IdGenerator;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class BiopaxToFactoidTest {
 	
@@ -51,4 +74,255 @@ public class BiopaxToFactoidTest {
 		}
 
 	}
+	
+	@Test
+	public void testPartialResults() throws IOException {
+		InputStream f = new FileInputStream(new File(getClass().getResource("/pc_sm.owl").getFile()));
+		Model model = new SimpleIOHandler().convertFromOWL(f);
+		JsonObject all = new BiopaxToFactoid().convert(model);
+		
+		// page through the documents one by one
+		Set<String> pmids = new HashSet<>();
+		String cursor = null;
+		PartialResult page;
+		do {
+			page = new BiopaxToFactoid().convert(model, new ConversionBudget(cursor, 1, null));
+			assertTrue(page.getDocuments().size() <= 1);
+			pmids.addAll(page.getDocuments().keySet());
+			cursor = page.getCursor();
+		} while (page.isPartial());
+		assertEquals(all.keySet(), pmids);
+	}
+	
+	@Test
+	public void testParallel() throws IOException {
+		InputStream f = new FileInputStream(new File(getClass().getResource("/pc_sm.owl").getFile()));
+		Model model = new SimpleIOHandler().convertFromOWL(f);
+		JsonObject sequential = new BiopaxToFactoid().convert(model);
+		
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			BiopaxToFactoid b2f = new BiopaxToFactoid();
+			b2f.setPool(pool);
+			JsonObject parallel = b2f.convert(model);
+			// the same documents in the same order (the ids are random)
+			assertEquals(new ArrayList<>(sequential.keySet()), new ArrayList<>(parallel.keySet()));
+			for ( String pmid : sequential.keySet() ) {
+				assertEquals(sequential.get(pmid).getAsJsonArray().size(), parallel.get(pmid).getAsJsonArray().size());
+			}
+			
+			PartialResult page = b2f.convert(model, new ConversionBudget(null, 1, null));
+			assertEquals(1, page.getDocuments().size());
+			assertTrue(page.isPartial() == sequential.size() > 1);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void testStreaming() throws IOException {
+		InputStream f = new FileInputStream(new File(getClass().getResource("/pc_sm.owl").getFile()));
+		Model model = new SimpleIOHandler().convertFromOWL(f);
+		JsonObject all = new BiopaxToFactoid().convert(model);
+		
+		StringWriter out = new StringWriter();
+		new BiopaxToFactoid().convert(model, out);
+		JsonObject streamed = JsonParser.parseString(out.toString()).getAsJsonObject();
+		assertEquals(new ArrayList<>(all.keySet()), new ArrayList<>(streamed.keySet()));
+		for ( String pmid : all.keySet() ) {
+			assertEquals(all.get(pmid).getAsJsonArray().size(), streamed.get(pmid).getAsJsonArray().size());
+		}
+		
+		out = new StringWriter();
+		new BiopaxToFactoid().convert(model, new ConversionBudget(null, 1, null), out);
+		JsonObject page = JsonParser.parseString(out.toString()).getAsJsonObject();
+		JsonObject documents = page.get("documents").getAsJsonObject();
+		assertEquals(1, documents.size());
+		if ( page.get("partial").getAsBoolean() ) {
+			assertEquals(documents.keySet().iterator().next(), page.get("cursor").getAsString());
+		} else {
+			assertTrue(page.get("cursor").isJsonNull());
+		}
+	}
+	
+	@Test
+	public void testNdjson() throws IOException {
+		InputStream f = new FileInputStream(new File(getClass().getResource("/pc_sm.owl").getFile()));
+		Model model = new SimpleIOHandler().convertFromOWL(f);
+		JsonObject all = new BiopaxToFactoid().convert(model);
+		PmidIndex index = PmidIndex.build(model, CancellationToken.NONE);
+		
+		StringWriter out = new StringWriter();
+		new BiopaxToFactoid().convertToNdjson(index, ConversionBudget.UNLIMITED, out);
+		List<String> pmids = new ArrayList<>();
+		for ( String line : out.toString().split("\n") ) {
+			JsonObject document = JsonParser.parseString(line).getAsJsonObject();
+			String pmid = document.get("pmid").getAsString();
+			assertEquals(all.get(pmid).getAsJsonArray().size(), document.get("elements").getAsJsonArray().size());
+			pmids.add(pmid);
+		}
+		assertEquals(new ArrayList<>(all.keySet()), pmids);
+		
+		out = new StringWriter();
+		new BiopaxToFactoid().convertToNdjson(index, new ConversionBudget(null, 1, null), out);
+		String[] lines = out.toString().split("\n");
+		assertEquals(all.size() > 1 ? 2 : 1, lines.length);
+		if ( lines.length == 2 ) {
+			JsonObject last = JsonParser.parseString(lines[1]).getAsJsonObject();
+			assertTrue(last.get("partial").getAsBoolean());
+			assertEquals(pmids.get(0), last.get("cursor").getAsString());
+		}
+	}
+	
+	// the same model, read twice, converted with deterministic ids, sequentially and in parallel
+	@Test
+	public void testDeterministicIds() throws IOException {
+		String[] results = new String[3];
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for ( int i = 0; i < results.length; i++ ) {
+				InputStream f = new FileInputStream(new File(getClass().getResource("/pc_sm.owl").getFile()));
+				Model model = new SimpleIOHandler().convertFromOWL(f);
+				BiopaxToFactoid b2f = new BiopaxToFactoid();
+				b2f.setIdGenerator(IdGenerator.deterministic(""));
+				if ( i == 2 ) {
+					b2f.setPool(pool);
+				}
+				StringWriter out = new StringWriter();
+				b2f.convert(model, out);
+				results[i] = out.toString();
+			}
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(results[0], results[1]);
+		assertEquals(results[0], results[2]);
+	}
+	
+	// the time budget is checked for each PMID, also when its documents are empty
+	@Test
+	public void testBudgetOverUngroundedPmids() {
+		Model model = BioPAXLevel.L3.getDefaultFactory().createModel();
+		for ( int i = 1; i <= 3; i++ ) {
+			UnificationXref code = model.addNew(UnificationXref.class, "code" + i);
+			code.setDb("mi");
+			code.setId("MI:0074");
+			EvidenceCodeVocabulary vocabulary = model.addNew(EvidenceCodeVocabulary.class, "vocabulary" + i);
+			vocabulary.addXref(code);
+			PublicationXref pub = model.addNew(PublicationXref.class, "pub" + i);
+			pub.setDb("pubmed");
+			pub.setId(String.valueOf(i));
+			Evidence evidence = model.addNew(Evidence.class, "evidence" + i);
+			evidence.addEvidenceCode(vocabulary);
+			evidence.addXref(pub);
+			BiochemicalReaction reaction = model.addNew(BiochemicalReaction.class, "reaction" + i);
+			reaction.addEvidence(evidence);
+			// no entity reference, so no grounding
+			Protein protein = model.addNew(Protein.class, "protein" + i);
+			Control control = model.addNew(Control.class, "control" + i);
+			control.addController(protein);
+			control.addControlled(reaction);
+		}
+		PmidIndex index = PmidIndex.build(model, CancellationToken.NONE);
+		assertEquals(3, index.size());
+		
+		PartialResult all = new BiopaxToFactoid().convert(index, ConversionBudget.UNLIMITED);
+		assertEquals(0, all.getDocuments().size());
+		assertFalse(all.isPartial());
+		
+		// (a zero duration is no limit)
+		PartialResult page = new BiopaxToFactoid().convert(index, new ConversionBudget(null, null, Duration.ofNanos(1)));
+		assertTrue(page.isPartial());
+		assertEquals("1", page.getCursor());
+		assertEquals(0, page.getDocuments().size());
+	}
+	
+	private static Protein protein(Model model, String name, BioSource organism, String uniprot) {
+		Protein protein = model.addNew(Protein.class, name);
+		protein.setDisplayName(name);
+		if ( uniprot != null ) {
+			UnificationXref xref = model.addNew(UnificationXref.class, "xref_" + name);
+			xref.setDb("uniprot knowledgebase");
+			xref.setId(uniprot);
+			ProteinReference reference = model.addNew(ProteinReference.class, "reference_" + name);
+			reference.addXref(xref);
+			reference.setOrganism(organism);
+			protein.setEntityReference(reference);
+		}
+		return protein;
+	}
+	
+	private static Evidence evidence(Model model, String uri, String... pmids) {
+		UnificationXref code = model.addNew(UnificationXref.class, "code_" + uri);
+		code.setDb("mi");
+		code.setId("MI:0074");
+		EvidenceCodeVocabulary vocabulary = model.addNew(EvidenceCodeVocabulary.class, "vocabulary_" + uri);
+		vocabulary.addXref(code);
+		Evidence evidence = model.addNew(Evidence.class, uri);
+		evidence.addEvidenceCode(vocabulary);
+		for ( String pmid : pmids ) {
+			PublicationXref pub = model.addNew(PublicationXref.class, "pub_" + uri + "_" + pmid);
+			pub.setDb("pubmed");
+			pub.setId(pmid);
+			evidence.addXref(pub);
+		}
+		return evidence;
+	}
+	
+	// A controls an interaction of each of B, C and D (ungrounded), all in PMID 10; the one of C in PMID 11 too
+	@Test
+	public void testSharedEntities() {
+		Model model = BioPAXLevel.L3.getDefaultFactory().createModel();
+		UnificationXref taxon = model.addNew(UnificationXref.class, "taxon");
+		taxon.setDb("taxonomy");
+		taxon.setId("9606");
+		BioSource human = model.addNew(BioSource.class, "human");
+		human.addXref(taxon);
+		Protein a = protein(model, "A", human, "P00001");
+		Evidence pmid10 = evidence(model, "evidence10", "10");
+		Evidence pmids10and11 = evidence(model, "evidence10and11", "10", "11");
+		String[][] targets = { { "B", "P00002" }, { "C", "P00003" }, { "D", null } };
+		for ( String[] target : targets ) {
+			MolecularInteraction interaction = model.addNew(MolecularInteraction.class, "interaction" + target[0]);
+			interaction.addParticipant(protein(model, target[0], human, target[1]));
+			interaction.addEvidence(target[0].equals("C") ? pmids10and11 : pmid10);
+			Control control = model.addNew(Control.class, "control" + target[0]);
+			control.addController(a);
+			control.addControlled(interaction);
+		}
+		
+		BiopaxToFactoid converter = new BiopaxToFactoid();
+		converter.setIdGenerator(IdGenerator.of(IdGenerator.Mode.DETERMINISTIC, ""));
+		JsonObject documents = converter.convert(model);
+		JsonArray document = documents.get("10").getAsJsonArray();
+		
+		// A, B and C once each (not D), and the interactions of B and C (not that of D)
+		Map<String, String> entityIds = new HashMap<>();
+		List<JsonObject> interactions = new ArrayList<>();
+		for ( JsonElement element : document ) {
+			JsonObject obj = element.getAsJsonObject();
+			if ( obj.has("entries") ) {
+				interactions.add(obj);
+			} else {
+				assertTrue(entityIds.put(obj.get("name").getAsString(), obj.get("id").getAsString()) == null);
+			}
+		}
+		assertEquals(3, entityIds.size());
+		assertFalse(entityIds.containsKey("D"));
+		assertEquals(2, interactions.size());
+		// both refer to the one object of A
+		for ( JsonObject interaction : interactions ) {
+			assertEquals(entityIds.get("A"), interaction.get("entries").getAsJsonArray().get(0).getAsJsonObject().get("id").getAsString());
+		}
+		
+		// the same ids again
+		assertEquals(documents, converter.convert(model));
+		
+		// the documents do not share objects
+		JsonObject a10 = document.get(0).getAsJsonObject();
+		JsonObject a11 = documents.get("11").getAsJsonArray().get(0).getAsJsonObject();
+		assertEquals("A", a11.get("name").getAsString());
+		assertEquals(a10.get("_xref"), a11.get("_xref"));
+		assertNotSame(a10.get("_xref"), a11.get("_xref"));
+	}
 }
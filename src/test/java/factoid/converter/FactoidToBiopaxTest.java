@@ -19,6 +19,7 @@ import java.io.ByteArrayInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.time.Duration;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -26,6 +27,7 @@ import java.util.stream.Collectors;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 //TODO: test each distinct json template (cases 1 - 4E from the interaction types doc.)
@@ -65,6 +67,23 @@ public class FactoidToBiopaxTest {
     assertThat(pubs.size(), is(1));
   }
   
+  @Test
+  public void testBiopaxModel() throws IOException {
+    Gson gson = new Gson();
+    JsonReader reader = new JsonReader(new FileReader(getClass()
+      .getResource("/test2.json").getFile()));
+    JsonObject template = gson.fromJson(reader, JsonObject.class);
+    FactoidToBiopax converter = new FactoidToBiopax();
+    converter.addToModel(template);
+
+    // the in-memory model has the same content as the one read back from the RDF/XML output
+    Model m = converter.getBiopaxModel();
+    Model parsed = converterResultToModel(converter.convertToBiopax());
+    assertThat(m.getObjects().size(), is(parsed.getObjects().size()));
+    assertThat(m.getObjects(Complex.class).size(), is(parsed.getObjects(Complex.class).size()));
+    assertThat(m.getObjects(Modulation.class).size(), is(parsed.getObjects(Modulation.class).size()));
+  }
+  
   public FactoidToBiopax getBiopaxConvertor(String intnsContent, String publicationContent) {
 	  return getBiopaxConvertor(intnsContent, publicationContent, null);
   }
@@ -110,6 +129,22 @@ public class FactoidToBiopaxTest {
 	  assertThat(m.getObjects(PublicationXref.class).size(), equalTo(1));
   }
   
+  @Test
+  public void testCancellation() {
+	  String doc = "{\"interactions\": [{\"type\": \"Other\", \"participants\": []}]}";
+	  
+	  FactoidToBiopax converter = new FactoidToBiopax();
+	  CancellationToken token = new CancellationToken(null);
+	  converter.setCancellationToken(token);
+	  token.cancel();
+	  assertThrows(ConversionCancelledException.class, () -> converter.addToModel(doc));
+	  
+	  // no templates are processed after the deadline either
+	  FactoidToBiopax late = new FactoidToBiopax();
+	  late.setCancellationToken(new CancellationToken(Duration.ofNanos(1)));
+	  assertThrows(ConversionCancelledException.class, () -> late.addToModel(doc));
+  }
+  
   @Test
   public void testPathwayName() throws IOException {
 	  String intnTemplates = "[]";
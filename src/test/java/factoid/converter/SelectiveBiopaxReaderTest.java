@@ -0,0 +1,76 @@
+package factoid.converter;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.biopax.paxtools.io.SimpleIOHandler;
+import org.biopax.paxtools.model.Model;
+import org.biopax.paxtools.model.level3.Interaction;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SelectiveBiopaxReaderTest {
+	
+	private Model read(boolean selective) throws IOException {
+		try (InputStream f = new FileInputStream(new File(getClass().getResource("/pc_sm.owl").getFile()))) {
+			return selective ? new SelectiveBiopaxReader().read(f) : new SimpleIOHandler().convertFromOWL(f);
+		}
+	}
+	
+	// the entity/interaction types and names of a document (the ids are random, the order is not fixed)
+	private static List<String> summary(JsonElement document) {
+		List<String> summary = new ArrayList<>();
+		for ( JsonElement el : document.getAsJsonArray() ) {
+			JsonObject obj = el.getAsJsonObject();
+			summary.add(obj.get("type").getAsString() + " " + (obj.has("name") ? obj.get("name") : ""));
+		}
+		Collections.sort(summary);
+		return summary;
+	}
+	
+	@Test
+	public void testSameConversion() throws IOException {
+		Model complete = read(false);
+		Model pruned = read(true);
+		assertEquals(complete.getObjects(Interaction.class).size(), pruned.getObjects(Interaction.class).size());
+		
+		JsonObject expected = new BiopaxToFactoid().convert(complete);
+		JsonObject actual = new BiopaxToFactoid().convert(pruned);
+		assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+		for ( Map.Entry<String, JsonElement> entry : expected.entrySet() ) {
+			assertEquals(summary(entry.getValue()), summary(actual.get(entry.getKey())));
+		}
+	}
+	
+	// an external entity is not resolved (XXE), the document is rejected
+	@Test
+	public void testNoExternalEntities() throws IOException {
+		File secret = File.createTempFile("secret", ".txt");
+		try {
+			Files.write(secret.toPath(), "SECRET".getBytes(StandardCharsets.UTF_8));
+			String owl = "<?xml version=\"1.0\"?>\n"
+				+ "<!DOCTYPE rdf:RDF [<!ENTITY xxe SYSTEM \"" + secret.toURI() + "\">]>\n"
+				+ "<rdf:RDF xmlns:rdf=\"" + SelectiveBiopaxReader.RDF_NS + "\" xmlns:bp=\"" + SelectiveBiopaxReader.BIOPAX_NS + "\">\n"
+				+ "<bp:Protein rdf:about=\"http://example.org/p\"><bp:displayName>&xxe;</bp:displayName></bp:Protein>\n"
+				+ "</rdf:RDF>";
+			assertThrows(IllegalStateException.class, () ->
+				new SelectiveBiopaxReader().read(new ByteArrayInputStream(owl.getBytes(StandardCharsets.UTF_8))));
+		} finally {
+			secret.delete();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package factoid.converter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.biopax.paxtools.io.SimpleIOHandler;
+import org.biopax.paxtools.model.Model;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import factoid.model.IdGenerator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ShardedBiopaxToFactoidTest {
+	
+	@TempDir
+	Path directory;
+	
+	private InputStream owl() throws IOException {
+		return new FileInputStream(new File(getClass().getResource("/pc_sm.owl").getFile()));
+	}
+	
+	// the elements of a document in a normal order (a sharded document has them in the order of the shards);
+	// the ids are the same, as both conversions derive them (deterministic ids)
+	private static List<String> elements(JsonElement document) {
+		List<String> elements = new ArrayList<>();
+		for ( JsonElement el : document.getAsJsonArray() ) {
+			elements.add(el.toString());
+		}
+		Collections.sort(elements);
+		return elements;
+	}
+	
+	// PMID -> elements, in the order of the documents
+	private static Map<String, List<String>> documents(JsonObject documents) {
+		Map<String, List<String>> result = new LinkedHashMap<>();
+		for ( Map.Entry<String, JsonElement> entry : documents.entrySet() ) {
+			result.put(entry.getKey(), elements(entry.getValue()));
+		}
+		return result;
+	}
+	
+	private Map<String, List<String>> convert(long maxPartitionSize) throws IOException {
+		// a few interactions per shard, so that documents are split across shards and partitions
+		StringWriter out = new StringWriter();
+		try (InputStream in = owl()) {
+			new ShardedBiopaxToFactoid(2, 3, maxPartitionSize, directory).convertToNdjson(in, out);
+		}
+		Map<String, List<String>> actual = new LinkedHashMap<>();
+		for ( String line : out.toString().split("\n") ) {
+			JsonObject document = JsonParser.parseString(line).getAsJsonObject();
+			assertNull(actual.put(document.get("pmid").getAsString(), elements(document.get("elements"))));
+		}
+		return actual;
+	}
+	
+	private Map<String, List<String>> expected() throws IOException {
+		Model model = new SimpleIOHandler().convertFromOWL(owl());
+		BiopaxToFactoid converter = new BiopaxToFactoid();
+		converter.setIdGenerator(IdGenerator.of(IdGenerator.Mode.DETERMINISTIC, ""));
+		return documents(converter.convert(model));
+	}
+	
+	// the same documents, in the same (PMID) order
+	private static void assertSameDocuments(Map<String, List<String>> expected, Map<String, List<String>> actual) {
+		assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+		assertEquals(expected, actual);
+	}
+	
+	@Test
+	public void testSameDocuments() throws IOException {
+		assertSameDocuments(expected(), convert(Long.MAX_VALUE));
+		// the temporary files are deleted
+		assertEquals(0, directory.toFile().list().length);
+	}
+	
+	// the same documents in one JSON object (biopax-url-to-json)
+	@Test
+	public void testJson() throws IOException {
+		StringWriter out = new StringWriter();
+		try (InputStream in = owl()) {
+			new ShardedBiopaxToFactoid(2, 3, Long.MAX_VALUE, directory).convertToJson(in, out);
+		}
+		assertSameDocuments(expected(), documents(JsonParser.parseString(out.toString()).getAsJsonObject()));
+	}
+	
+	// every partition is split (down to the parts of one PMID), and each document is still merged once
+	@Test
+	public void testSplitPartitions() throws IOException {
+		assertSameDocuments(expected(), convert(1));
+		assertEquals(0, directory.toFile().list().length);
+	}
+}
@@ -2,16 +2,22 @@ package factoid.model;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.biopax.paxtools.model.Model;
+import org.biopax.paxtools.model.level3.Complex;
 import org.biopax.paxtools.model.level3.Control;
 import org.biopax.paxtools.model.level3.ControlType;
 import org.biopax.paxtools.model.level3.Conversion;
 import org.biopax.paxtools.model.level3.ConversionDirectionType;
+import org.biopax.paxtools.model.level3.ModificationFeature;
 import org.biopax.paxtools.model.level3.Protein;
 import org.biopax.paxtools.model.level3.ProteinReference;
 import org.biopax.paxtools.model.level3.SmallMoleculeReference;
@@ -57,6 +63,83 @@ public class BioPAXModelTest {
 		assertEquals(2, protRef.getEntityFeature().size(), "Protein reference has a new modification");
 	}
 	
+	@Test
+	public void matchPhysicalEntityStateTest() {
+		
+		BioPAXModel model = new BioPAXModel();
+		
+		String protName = "TP53";
+		ProteinReference protRef = model.getOrCreateEntityReference(ProteinReference.class, protName, new XrefModel("xrefid1", "uniprot"));
+		
+		Set<String> modificationTypes = new HashSet<String>();
+		modificationTypes.add("active");
+		modificationTypes.add("phosphorylated");
+		
+		Set<String> sameTypes = new HashSet<String>();
+		sameTypes.add("phosphorylated");
+		sameTypes.add("active");
+		
+		Protein prot1 = model.getOrCreatePhysicalEntity(Protein.class, protName, protRef, modificationTypes, null);
+		assertEquals(prot1, model.getOrCreatePhysicalEntity(Protein.class, protName, protRef, sameTypes, new HashSet<String>()),
+				"The same modifications in another set match the protein");
+		
+		Protein prot2 = model.getOrCreatePhysicalEntity(Protein.class, protName, protRef, null, modificationTypes);
+		assertNotEquals(prot1, prot2, "Not-features are distinct from features");
+		assertEquals(prot2, model.getOrCreatePhysicalEntity(Protein.class, protName, protRef, new HashSet<String>(), sameTypes));
+		
+		List<EntityModel> components = new ArrayList<EntityModel>();
+		components.add(new EntityModel(protName, new XrefModel("xrefid1", "uniprot"), "protein"));
+		Complex complex = model.getOrCreatePhysicalEntity(Complex.class, "complex", null, false, components);
+		Protein component = (Protein) complex.getComponent().iterator().next();
+		assertEquals(protRef, component.getEntityReference());
+		assertNotEquals(model.getOrCreatePhysicalEntity(Protein.class, protName, protRef), component,
+				"A complex component is distinct from a free protein");
+		assertEquals(component, model.getOrCreatePhysicalEntity(Protein.class, protName, protRef, null, null, true, null));
+	}
+	
+	@Test
+	public void modificationFeatureTest() {
+		
+		BioPAXModel model = new BioPAXModel();
+		
+		ProteinReference ref1 = model.getOrCreateEntityReference(ProteinReference.class, "TP53", new XrefModel("P04637", "uniprot"));
+		ProteinReference ref2 = model.getOrCreateEntityReference(ProteinReference.class, "MDM2", new XrefModel("Q00987", "uniprot"));
+		
+		ModificationFeature feature1 = model.getOrCreateModificationFeature(new String("phosphorylation"), ref1);
+		assertSame(feature1, model.getOrCreateModificationFeature(new String("phosphorylation"), ref1),
+				"The feature of the modification type is reused");
+		assertNotEquals(feature1, model.getOrCreateModificationFeature("active", ref1));
+		assertEquals(2, ref1.getEntityFeature().size());
+		
+		ModificationFeature feature2 = model.getOrCreateModificationFeature(new String("phosphorylation"), ref2);
+		assertNotEquals(feature1, feature2, "Each entity reference has its own features");
+		assertSame(feature1.getModificationType().getTerm().iterator().next(),
+				feature2.getModificationType().getTerm().iterator().next(), "The modification type is shared");
+	}
+	
+	@Test
+	public void matchComplexTest() {
+		
+		BioPAXModel model = new BioPAXModel();
+		
+		EntityModel tp53 = new EntityModel("TP53", new XrefModel("P04637", "uniprot"), "protein");
+		EntityModel mdm2 = new EntityModel("MDM2", new XrefModel("Q00987", "uniprot"), "protein");
+		EntityModel atp = new EntityModel("ATP", new XrefModel("CHEBI:15422", "chebi"), "chemical");
+		
+		Complex complex1 = model.getOrCreatePhysicalEntity(Complex.class, "complex", null, false, Arrays.asList(tp53, mdm2));
+		assertEquals(2, complex1.getComponent().size());
+		
+		Complex complex2 = model.getOrCreatePhysicalEntity(Complex.class, "complex", null, false, Arrays.asList(mdm2, tp53));
+		assertEquals(complex1, complex2, "The same components in another order match the complex");
+		
+		Complex complex3 = model.getOrCreatePhysicalEntity(Complex.class, "complex", null, false, Arrays.asList(tp53, mdm2, atp));
+		assertNotEquals(complex1, complex3, "A new complex is added with different components");
+		
+		Complex complex4 = model.getOrCreatePhysicalEntity(Complex.class, "other", null, false, Arrays.asList(tp53, mdm2));
+		assertNotEquals(complex1, complex4, "A new complex is added with a different name");
+		assertEquals(complex1.getComponent(), complex4.getComponent(), "The components are shared");
+	}
+	
 	@Test
 	public void addEntityReferenceTest() {
 		
@@ -68,7 +151,6 @@ public class BioPAXModelTest {
 		String commonName = "Protein1";
 		String uniqueName = "Protein2";
 		
-		// TODO: add tests for same name but different xref as well
 		XrefModel commonXref = new XrefModel("common-xref", "uniprot");
 		
 		ProteinReference protRef1 = model.getOrCreateEntityReference(ProteinReference.class, commonName, commonXref);
@@ -83,6 +165,16 @@ public class BioPAXModelTest {
 		
 		ProteinReference protRef3 = model.getOrCreateEntityReference(ProteinReference.class, uniqueName, commonXref);
 		assertNotEquals(protRef1, protRef3, "A new protein is added with a new name");
+		
+		ProteinReference protRef4 = model.getOrCreateEntityReference(ProteinReference.class, commonName, new XrefModel("common-xref", "uniprot"));
+		assertEquals(protRef1, protRef4, "No duplication in adding a protein with an equal xref");
+		
+		ProteinReference protRef5 = model.getOrCreateEntityReference(ProteinReference.class, commonName, new XrefModel("other-xref", "uniprot"));
+		assertNotEquals(protRef1, protRef5, "A new protein is added with a new xref");
+		
+		ProteinReference protRef6 = model.getOrCreateEntityReference(ProteinReference.class, commonName, commonXref, new XrefModel("9606", "taxonomy"));
+		assertNotEquals(protRef1, protRef6, "A new protein is added with an organism");
+		assertEquals(protRef6, model.getOrCreateEntityReference(ProteinReference.class, commonName, commonXref, new XrefModel("9606", "taxonomy")));
 	}
 	
 	@Test
@@ -0,0 +1,79 @@
+package factoid.web;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionFilterTest {
+
+  private static AdmissionFilter filter(int maxConcurrent, long maxMemory) {
+    ConverterProperties properties = new ConverterProperties();
+    properties.getAdmission().setMaxConcurrent(maxConcurrent);
+    properties.getAdmission().setMaxMemory(DataSize.ofBytes(maxMemory));
+    properties.getAdmission().setMemoryFactor(1);
+    properties.getAdmission().setMaxQueue(0);
+    properties.getAdmission().setRetryAfter(Duration.ofSeconds(5));
+    return new AdmissionFilter(properties, new SimpleMeterRegistry());
+  }
+
+  private static MockHttpServletRequest request(String path, int length) {
+    MockHttpServletRequest request = new MockHttpServletRequest("POST", path);
+    request.setContent(new byte[length]);
+    request.setAsyncSupported(true);
+    return request;
+  }
+
+  // starts an async (streamed) response, like the StreamingResponseBody endpoints do
+  private static final FilterChain ASYNC = (req, res) -> req.startAsync();
+
+  @Test
+  public void testConcurrencyLimit() throws ServletException, IOException {
+    AdmissionFilter filter = filter(1, 1000);
+    MockHttpServletRequest first = request("/v2/biopax-to-json", 10);
+    filter.doFilter(first, new MockHttpServletResponse(), ASYNC);
+    assertEquals(1, filter.getRunning());
+
+    MockHttpServletResponse rejected = new MockHttpServletResponse();
+    filter.doFilter(request("/v2/biopax-to-sbgn", 10), rejected, ASYNC);
+    assertEquals(429, rejected.getStatus());
+    assertEquals("5", rejected.getHeader("Retry-After"));
+
+    // small requests are never held back
+    MockHttpServletResponse light = new MockHttpServletResponse();
+    filter.doFilter(request("/v2/json-to-biopax", 10), light, (req, res) -> {});
+    assertEquals(200, light.getStatus());
+
+    // the permit is released when the streamed response completes
+    first.getAsyncContext().complete();
+    assertEquals(0, filter.getRunning());
+    MockHttpServletResponse admitted = new MockHttpServletResponse();
+    filter.doFilter(request("/v2/biopax-to-sbgn", 10), admitted, (req, res) -> {});
+    assertEquals(200, admitted.getStatus());
+    assertEquals(0, filter.getRunning());
+  }
+
+  @Test
+  public void testMemoryBudget() throws ServletException, IOException {
+    AdmissionFilter filter = filter(10, 100);
+    filter.doFilter(request("/v2/biopax-to-json", 60), new MockHttpServletResponse(), ASYNC);
+    assertEquals(60, filter.getMemory());
+
+    MockHttpServletResponse rejected = new MockHttpServletResponse();
+    filter.doFilter(request("/v2/biopax-to-json", 50), rejected, ASYNC);
+    assertEquals(429, rejected.getStatus());
+
+    MockHttpServletResponse admitted = new MockHttpServletResponse();
+    filter.doFilter(request("/v2/biopax-to-json", 40), admitted, ASYNC);
+    assertEquals(200, admitted.getStatus());
+    assertEquals(100, filter.getMemory());
+  }
+}
@@ -46,6 +46,22 @@ public class ControllerT {
     assertTrue(res.contains("http://sbgn.org/libsbgn/"));
   }
 
+  @Test
+  public void testJsonToBiopaxBatch() throws IOException {
+    String data = new String(Files.readAllBytes(Paths.get(getClass().getResource("/test2.json").getFile())));
+    HttpHeaders headers = new HttpHeaders();
+    headers.set("Content-Type", MediaType.APPLICATION_JSON_VALUE);
+    HttpEntity<String> request = new HttpEntity<>("[" + data + ", {\"foo\": 1}, " + data + "]", headers);
+    String res = template.postForObject("/v2/json-to-biopax-batch", request, String.class);
+    assertNotNull(res);
+    String[] lines = res.trim().split("\n");
+    assertEquals(3, lines.length);
+    assertTrue(lines[0].startsWith("{\"index\":0,\"status\":200,"));
+    assertTrue(lines[0].contains("biopax-level3.owl#"));
+    assertTrue(lines[1].startsWith("{\"index\":1,\"status\":500,"));
+    assertTrue(lines[2].startsWith("{\"index\":2,\"status\":200,"));
+  }
+
   @Test
   public void testBiopaxToSbgn() throws IOException {
     String data = new String(Files.readAllBytes(Paths.get(getClass().getResource("/test.owl").getFile())));
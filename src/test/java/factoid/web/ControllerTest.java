@@ -0,0 +1,123 @@
+package factoid.web;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import factoid.model.IdGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.DelegatingServletInputStream;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.ServletInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ControllerTest {
+
+  private static Controller controller(ConverterProperties properties) {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    return new Controller(properties, new BatchConverter(properties), new ResultCache(properties, registry),
+      new SingleFlight(properties, registry), new UrlFetcher(properties), new ModelCache(properties, registry));
+  }
+
+  private String testDocument() throws IOException {
+    return new String(Files.readAllBytes(Paths.get(getClass().getResource("/test2.json").getFile())),
+      StandardCharsets.UTF_8);
+  }
+
+  // a leader whose response task is never run (e.g. its lane rejected it) does not hold up the next requests
+  @Test
+  public void testRejectedLeader() throws IOException {
+    ConverterProperties properties = new ConverterProperties();
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    SingleFlight singleFlight = new SingleFlight(properties, registry);
+    ResultCache cache = new ResultCache(properties, registry);
+    Controller controller = new Controller(properties, new BatchConverter(properties), cache, singleFlight,
+      new UrlFetcher(properties), new ModelCache(properties, registry));
+    String data = testDocument();
+
+    // the task of the first request is never run
+    controller.jsonToBiopax(data, new MockHttpServletRequest());
+
+    String key = cache.key("json-to-biopax", data);
+    SingleFlight.Call probe = singleFlight.join(key);
+    assertTrue(probe.isLeader(), "No conversion is left in flight");
+    probe.complete(null);
+
+    ResponseEntity<StreamingResponseBody> response = controller.jsonToBiopax(data, new MockHttpServletRequest());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    response.getBody().writeTo(out);
+    assertTrue(out.toString("UTF-8").contains("biopax-level3.owl#"));
+    assertNotNull(cache.get(key), "The leader caches the result");
+    assertTrue(singleFlight.join(key).isLeader());
+  }
+
+  // the disconnect probe is off by default: an error that comes after (what would be) a probe interval
+  // still returns its status, with nothing written before it
+  @Test
+  public void testErrorStatusAfterProbeInterval() throws IOException {
+    ConverterProperties properties = new ConverterProperties();
+    assertNull(properties.getDisconnectProbeInterval());
+    properties.setMaxRequestSize(DataSize.ofBytes(10));
+    Controller controller = controller(properties);
+    // no content length: the body turns out to be too large (413) while it is read, after a while
+    InputStream slow = new ByteArrayInputStream(new byte[100]) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return super.read(b, off, len);
+      }
+    };
+    MockHttpServletRequest request = new MockHttpServletRequest() {
+      @Override
+      public ServletInputStream getInputStream() {
+        return new DelegatingServletInputStream(slow);
+      }
+    };
+
+    ResponseEntity<StreamingResponseBody> response = controller.biopaxToFactoidNdjson(request, null, null, null);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> response.getBody().writeTo(out));
+    assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, e.getStatus());
+    assertEquals(0, out.size(), "Nothing is written before the error");
+  }
+
+  // with deterministic ids, a document gets the same OWL from json-to-biopax and json-to-biopax-batch
+  @Test
+  public void testSameIdsInBatch() throws IOException {
+    ConverterProperties properties = new ConverterProperties();
+    properties.setIds(IdGenerator.Mode.DETERMINISTIC);
+    Controller controller = controller(properties);
+    String data = testDocument();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    controller.jsonToBiopax(data, new MockHttpServletRequest()).getBody().writeTo(out);
+    String owl = out.toString("UTF-8");
+
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    request.setContent(("[" + data + "]").getBytes(StandardCharsets.UTF_8));
+    out = new ByteArrayOutputStream();
+    controller.jsonToBiopaxBatch(request).getBody().writeTo(out);
+    JsonObject result = JsonParser.parseString(out.toString("UTF-8").trim()).getAsJsonObject();
+    assertEquals(200, result.get("status").getAsInt());
+    assertEquals(owl, result.get("result").getAsString());
+  }
+}
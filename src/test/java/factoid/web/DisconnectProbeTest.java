@@ -0,0 +1,58 @@
+package factoid.web;
+
+import factoid.converter.CancellationToken;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DisconnectProbeTest {
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  @AfterEach
+  public void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  // the client went away before anything was written
+  @Test
+  public void testCancelled() throws InterruptedException {
+    CancellationToken token = new CancellationToken(null);
+    OutputStream closed = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("Broken pipe");
+      }
+    };
+    new DisconnectProbe(closed, token, scheduler, Duration.ofMillis(10));
+    for (int i = 0; i < 100 && !token.isCancelled(); i++) {
+      Thread.sleep(10);
+    }
+    assertTrue(token.isCancelled());
+  }
+
+  // whitespace until the first write only
+  @Test
+  public void testStoppedByWrite() throws IOException, InterruptedException {
+    CancellationToken token = new CancellationToken(null);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DisconnectProbe probe = new DisconnectProbe(out, token, scheduler, Duration.ofMillis(10));
+    Thread.sleep(100);
+    probe.write("{}".getBytes(StandardCharsets.UTF_8));
+    Thread.sleep(100);
+    String written = out.toString("UTF-8");
+    assertTrue(written.startsWith(" "));
+    assertEquals("{}", written.trim());
+    assertTrue(written.endsWith("{}"));
+    assertFalse(token.isCancelled());
+  }
+}
@@ -0,0 +1,39 @@
+package factoid.web;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LaneExecutorTest {
+
+  private final LaneExecutor executor = new LaneExecutor(new ConverterProperties(), new SimpleMeterRegistry());
+
+  @AfterEach
+  public void shutdown() {
+    RequestContextHolder.resetRequestAttributes();
+    executor.shutdown();
+  }
+
+  // the name of the thread that runs a task submitted while handling the request
+  private String lane(String path, int length) throws ExecutionException, InterruptedException {
+    MockHttpServletRequest request = new MockHttpServletRequest("POST", path);
+    request.setContent(new byte[length]);
+    RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    return executor.submit(() -> Thread.currentThread().getName()).get();
+  }
+
+  @Test
+  public void testLanes() throws ExecutionException, InterruptedException {
+    assertTrue(lane("/v2/json-to-biopax", 1000).startsWith("fast-"));
+    assertTrue(lane("/v2/biopax-to-json", 1000).startsWith("heavy-"));
+    // a large document is heavy whatever the endpoint
+    assertTrue(lane("/v2/json-to-biopax", 2 * 1024 * 1024).startsWith("heavy-"));
+  }
+}
@@ -0,0 +1,81 @@
+package factoid.web;
+
+import factoid.converter.CancellationToken;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.biopax.paxtools.model.BioPAXLevel;
+import org.biopax.paxtools.model.Model;
+import org.biopax.paxtools.model.level3.Protein;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ModelCacheTest {
+
+  private static Model model(int elements) {
+    Model model = BioPAXLevel.L3.getDefaultFactory().createModel();
+    for (int i = 0; i < elements; i++) {
+      model.addNew(Protein.class, "protein" + i);
+    }
+    return model;
+  }
+
+  private static ModelCache cache(long maxElements) {
+    ConverterProperties properties = new ConverterProperties();
+    properties.getModelCache().setMaxElements(maxElements);
+    return new ModelCache(properties, new SimpleMeterRegistry());
+  }
+
+  @Test
+  public void testKeyedByValidator() {
+    ModelCache cache = cache(100);
+    Model model = model(3);
+    cache.put("http://x/a.owl", "\"v1\"", model);
+    assertSame(model, cache.get("http://x/a.owl", "\"v1\""));
+    assertNull(cache.get("http://x/a.owl", "\"v2\""));
+    // no validator - cannot tell whether the content has changed
+    cache.put("http://x/b.owl", null, model);
+    assertNull(cache.get("http://x/b.owl", null));
+  }
+
+  // the model of changed content is dropped, and replaced by the new one, with the weight to match
+  @Test
+  public void testStaleReplaced() {
+    ModelCache cache = cache(100);
+    cache.put("http://x/a.owl", "\"v1\"", model(6));
+    assertTrue(cache.contains("http://x/a.owl"));
+    assertNull(cache.get("http://x/a.owl", "\"v2\""));
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.weight());
+    cache.put("http://x/a.owl", "\"v1\"", model(6));
+    Model model = model(4);
+    cache.put("http://x/a.owl", "\"v2\"", model);
+    assertEquals(1, cache.size());
+    assertEquals(4, cache.weight());
+    assertSame(model, cache.get("http://x/a.owl", "\"v2\""));
+  }
+
+  @Test
+  public void testWeightBound() {
+    ModelCache cache = cache(10);
+    cache.put("a", "1", model(6));
+    cache.put("b", "1", model(4));
+    assertNotNull(cache.get("a", "1")); // now "b" is the least recently used entry
+    cache.put("c", "1", model(3));
+    assertNull(cache.get("b", "1"));
+    assertNotNull(cache.get("a", "1"));
+    assertEquals(9, cache.weight());
+    cache.put("d", "1", model(11)); // larger than the max weight
+    assertNull(cache.get("d", "1"));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testPmidIndexReused() {
+    ModelCache cache = cache(100);
+    Model model = model(3);
+    cache.put("http://x/a.owl", "\"v1\"", model);
+    assertSame(cache.pmidIndex(model, CancellationToken.NONE), cache.pmidIndex(model, CancellationToken.NONE));
+    Model other = model(3);
+    assertNotSame(cache.pmidIndex(other, CancellationToken.NONE), cache.pmidIndex(other, CancellationToken.NONE));
+  }
+}
@@ -0,0 +1,111 @@
+package factoid.web;
+
+import factoid.model.IdGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResultCacheTest {
+
+  private static ConverterProperties properties(int maxEntries, long maxBytes) {
+    ConverterProperties properties = new ConverterProperties();
+    properties.getCache().setMaxEntries(maxEntries);
+    properties.getCache().setMaxSize(DataSize.ofBytes(maxBytes));
+    properties.getCache().setMaxEntrySize(DataSize.ofBytes(maxBytes));
+    return properties;
+  }
+
+  @Test
+  public void testKey() {
+    ResultCache cache = new ResultCache(properties(10, 1000), new SimpleMeterRegistry());
+    assertEquals(cache.key("json-to-biopax", "{}"), cache.key("json-to-biopax", "{}"));
+    assertNotEquals(cache.key("json-to-biopax", "{}"), cache.key("json-to-sbgn", "{}"));
+    assertNotEquals(cache.key("json-to-biopax", "{}"), cache.key("json-to-biopax", "{ }"));
+
+    // the results of other settings are not used
+    ConverterProperties deterministic = properties(10, 1000);
+    deterministic.setIds(IdGenerator.Mode.DETERMINISTIC);
+    assertNotEquals(cache.key("json-to-biopax", "{}"),
+      new ResultCache(deterministic, new SimpleMeterRegistry()).key("json-to-biopax", "{}"));
+  }
+
+  @Test
+  public void testLruEviction() {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    ResultCache cache = new ResultCache(properties(2, 1000), registry);
+    cache.put("a", new byte[]{1});
+    cache.put("b", new byte[]{2});
+    assertNotNull(cache.get("a")); // now "b" is the least recently used entry
+    cache.put("c", new byte[]{3});
+    assertNull(cache.get("b"));
+    assertArrayEquals(new byte[]{1}, cache.get("a"));
+    assertArrayEquals(new byte[]{3}, cache.get("c"));
+    assertEquals(1.0, registry.get("factoid.cache.evictions").counter().count());
+    assertEquals(3.0, registry.get("factoid.cache.requests").tag("result", "hit").tag("tier", "memory").counter().count());
+    assertEquals(1.0, registry.get("factoid.cache.requests").tag("result", "miss").counter().count());
+  }
+
+  @Test
+  public void testByteBound() {
+    ResultCache cache = new ResultCache(properties(100, 10), new SimpleMeterRegistry());
+    cache.put("a", new byte[6]);
+    cache.put("b", new byte[6]);
+    assertNull(cache.get("a"));
+    assertNotNull(cache.get("b"));
+    assertEquals(6, cache.byteSize());
+    cache.put("c", new byte[11]); // larger than the max entry size
+    assertNull(cache.get("c"));
+  }
+
+  @Test
+  public void testWriteThrough() throws IOException {
+    ResultCache cache = new ResultCache(properties(10, 1000), new SimpleMeterRegistry());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[][] done = new byte[1][];
+    cache.writeThrough("k", o -> o.write("result".getBytes(StandardCharsets.UTF_8)), r -> done[0] = r).writeTo(out);
+    assertEquals("result", out.toString("UTF-8"));
+    assertArrayEquals(out.toByteArray(), cache.get("k"));
+    assertArrayEquals(out.toByteArray(), done[0]);
+  }
+
+  @Test
+  public void testDiskTier(@TempDir Path dir) {
+    ConverterProperties properties = properties(1, 1000);
+    properties.getCache().setDirectory(dir.toString());
+    ResultCache cache = new ResultCache(properties, new SimpleMeterRegistry());
+    String key = cache.key("json-to-sbgn", "{}");
+    cache.put(key, new byte[]{1});
+    cache.put(cache.key("json-to-sbgn", "[]"), new byte[]{2});
+    // evicted from memory but still on disk; a new instance (e.g. after restart) finds it too
+    assertArrayEquals(new byte[]{1}, cache.get(key));
+    assertArrayEquals(new byte[]{1}, new ResultCache(properties, new SimpleMeterRegistry()).get(key));
+  }
+
+  // the temporary file of a write in progress is not evicted, however old it is
+  @Test
+  public void testDiskEvictionSkipsTemporaryFiles(@TempDir Path dir) throws IOException {
+    ConverterProperties properties = properties(1, 1000);
+    properties.getCache().setDirectory(dir.toString());
+    properties.getCache().setMaxDiskSize(DataSize.ofBytes(10));
+    ResultCache cache = new ResultCache(properties, new SimpleMeterRegistry());
+    Path tmp = Files.createTempFile(dir, "k", ".tmp");
+    Files.write(tmp, new byte[8]);
+    Files.setLastModifiedTime(tmp, FileTime.fromMillis(0));
+    cache.put("aa1", new byte[6]);
+    Files.setLastModifiedTime(dir.resolve("aa").resolve("aa1"), FileTime.fromMillis(1000));
+    cache.put("aa2", new byte[6]);
+    assertTrue(Files.exists(tmp));
+    assertNull(new ResultCache(properties, new SimpleMeterRegistry()).get("aa1"));
+    assertNotNull(cache.get("aa2"));
+  }
+}
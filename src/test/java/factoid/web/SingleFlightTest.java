@@ -0,0 +1,37 @@
+package factoid.web;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SingleFlightTest {
+
+  @Test
+  public void testSharedResult() throws IOException {
+    SingleFlight singleFlight = new SingleFlight(new ConverterProperties(), new SimpleMeterRegistry());
+    SingleFlight.Call leader = singleFlight.join("k");
+    SingleFlight.Call follower = singleFlight.join("k");
+    assertTrue(leader.isLeader());
+    assertFalse(follower.isLeader());
+    assertTrue(singleFlight.join("other").isLeader());
+
+    leader.complete(new byte[]{1, 2});
+    assertArrayEquals(new byte[]{1, 2}, follower.await());
+    // done; the next one starts a new conversion
+    assertTrue(singleFlight.join("k").isLeader());
+  }
+
+  @Test
+  public void testSharedFailure() {
+    SingleFlight singleFlight = new SingleFlight(new ConverterProperties(), new SimpleMeterRegistry());
+    SingleFlight.Call leader = singleFlight.join("k");
+    SingleFlight.Call follower = singleFlight.join("k");
+    leader.fail(new ResponseStatusException(HttpStatus.BAD_REQUEST));
+    assertThrows(ResponseStatusException.class, follower::await);
+  }
+}
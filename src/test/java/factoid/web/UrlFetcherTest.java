@@ -0,0 +1,151 @@
+package factoid.web;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// a local HTTP server stands in for the Pathway Commons file server
+public class UrlFetcherTest {
+
+  private static final String CONTENT = "<rdf:RDF>...</rdf:RDF>";
+  private static final String ETAG = "\"v1\"";
+
+  private HttpServer server;
+  private final AtomicInteger downloads = new AtomicInteger();
+
+  @BeforeEach
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/plain.owl", exchange -> {
+      exchange.getResponseHeaders().set("ETag", ETAG);
+      if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        exchange.sendResponseHeaders(304, -1);
+      } else if ("HEAD".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(200, -1);
+      } else {
+        downloads.incrementAndGet();
+        byte[] body = CONTENT.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+      }
+      exchange.close();
+    });
+    server.createContext("/archive.owl.gz", exchange -> {
+      downloads.incrementAndGet();
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      try (OutputStream gz = new GZIPOutputStream(baos)) {
+        gz.write(CONTENT.getBytes(StandardCharsets.UTF_8));
+      }
+      exchange.sendResponseHeaders(200, baos.size());
+      exchange.getResponseBody().write(baos.toByteArray());
+      exchange.close();
+    });
+    server.createContext("/missing.owl", exchange -> {
+      exchange.sendResponseHeaders(404, -1);
+      exchange.close();
+    });
+    server.start();
+  }
+
+  @AfterEach
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private String url(String path) {
+    return "http://localhost:" + server.getAddress().getPort() + path;
+  }
+
+  private static String read(UrlFetcher.Download download) throws IOException {
+    try (UrlFetcher.Download d = download) {
+      return StreamUtils.copyToString(d.getInputStream(), StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test
+  public void testPlainAndGzipped() throws IOException {
+    UrlFetcher fetcher = new UrlFetcher(new ConverterProperties());
+    assertEquals(CONTENT, read(fetcher.open(url("/plain.owl"))));
+    assertEquals(CONTENT, read(fetcher.open(url("/archive.owl.gz"))));
+    // one request per fetch
+    assertEquals(2, downloads.get());
+  }
+
+  // a cached model is validated without downloading the content again
+  @Test
+  public void testValidator() throws IOException {
+    UrlFetcher fetcher = new UrlFetcher(new ConverterProperties());
+    assertEquals(ETAG, fetcher.validator(url("/plain.owl")));
+    assertEquals(0, downloads.get());
+    try (UrlFetcher.Download download = fetcher.open(url("/plain.owl"))) {
+      assertEquals(ETAG, download.getValidator());
+    }
+    assertNull(fetcher.validator(url("/missing.owl")));
+  }
+
+  @Test
+  public void testHttpError() {
+    UrlFetcher fetcher = new UrlFetcher(new ConverterProperties());
+    assertThrows(IOException.class, () -> fetcher.open(url("/missing.owl")));
+  }
+
+  @Test
+  public void testDownloadCache(@TempDir Path dir) throws IOException {
+    ConverterProperties properties = new ConverterProperties();
+    properties.getDownload().setCacheDirectory(dir.toString());
+    UrlFetcher fetcher = new UrlFetcher(properties);
+
+    UrlFetcher.Download first = fetcher.open(url("/plain.owl"));
+    assertFalse(first.isFromCache());
+    assertEquals(ETAG, first.getValidator());
+    assertEquals(CONTENT, read(first));
+
+    // revalidated (304), served from the local copy
+    UrlFetcher.Download second = fetcher.open(url("/plain.owl"));
+    assertTrue(second.isFromCache());
+    assertEquals(ETAG, second.getValidator());
+    assertEquals(CONTENT, read(second));
+    assertEquals(1, downloads.get());
+  }
+
+  @Test
+  public void testIncompleteDownloadNotCached(@TempDir Path dir) throws IOException {
+    ConverterProperties properties = new ConverterProperties();
+    properties.getDownload().setCacheDirectory(dir.toString());
+    UrlFetcher fetcher = new UrlFetcher(properties);
+
+    try (UrlFetcher.Download download = fetcher.open(url("/plain.owl"))) {
+      download.getInputStream().read();
+    }
+    assertFalse(fetcher.open(url("/plain.owl")).isFromCache());
+    assertEquals(2, downloads.get());
+  }
+
+  // larger than the whole cache: not copied
+  @Test
+  public void testTooLargeNotCached(@TempDir Path dir) throws IOException {
+    ConverterProperties properties = new ConverterProperties();
+    properties.getDownload().setCacheDirectory(dir.toString());
+    properties.getDownload().setMaxCacheSize(DataSize.ofBytes(CONTENT.length() - 1));
+    UrlFetcher fetcher = new UrlFetcher(properties);
+
+    assertEquals(CONTENT, read(fetcher.open(url("/plain.owl"))));
+    assertFalse(fetcher.open(url("/plain.owl")).isFromCache());
+    assertEquals(0, dir.toFile().list().length);
+  }
+}